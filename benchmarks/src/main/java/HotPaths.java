@@ -0,0 +1,225 @@
+/*
+ * Program POMEGRANATE for cell lineage tree simulation and sampling
+ * by Victoria Popic (viq@stanford.edu) 2014-2015
+ *
+ * MIT License
+ *
+ * Copyright (c) 2014 Victoria Popic.
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+
+/**
+ * Benchmark scenarios of the simulator hot paths.
+ * JMH does not accept benchmark classes in the default package, and classes in named packages
+ * cannot refer to the simulator classes, so the benchmarks (in pomegranate.benchmarks) obtain
+ * each scenario from this class in their setup and only invoke the returned Callable when measuring.
+ * Each scenario prepares its inputs with a fixed seed, so every invocation does the same work.
+ */
+public class HotPaths {
+	private static final long SEED = 42;
+	private static final int NUM_TREE_NODES = 1000;
+	private static final int NUM_SAMPLES = 5;
+	
+	/**
+	 * Default simulation parameters, except for the CNV probability
+	 */
+	private static Parameters parameters(double probCNV) {
+		Parameters params = new Parameters();
+		params.PROB_CNV = probCNV;
+		return params;
+	}
+	
+	/**
+	 * Grows a tree until it contains the given number of undead nodes
+	 */
+	private static SimulatedTree growTree(Parameters params, int numNodes) {
+		SimulatedTree tree = new SimulatedTree(params, new RandomStream(SEED));
+		while(tree.getNumLiveNodes() < numNodes + 1) {
+			tree.grow();
+		}
+		return tree;
+	}
+	
+	private static ArrayList<TumorSample> getSamples(SimulatedTree tree, int numSamples) {
+		ArrayList<TumorSample> samples = new ArrayList<TumorSample>();
+		for(int i = 0; i < numSamples; i++) {
+			samples.add(tree.getSample());
+		}
+		return samples;
+	}
+	
+	/**
+	 * Growth of a tree to the given number of undead nodes
+	 * @param growth "iteration" or "event" (event-driven growth)
+	 * @param store "objects" (SimulatedTree) or "compact" (TreeStore)
+	 */
+	public static Callable<Object> grow(final int numNodes, String growth, String store) {
+		final Parameters params = parameters(0.02);
+		params.EVENT_DRIVEN_GROWTH = growth.equals("event");
+		if(store.equals("compact")) {
+			return new Callable<Object>() {
+				public Object call() {
+					TreeStore tree = new TreeStore(params, new RandomStream(SEED));
+					while(tree.getNumLiveNodes() < numNodes + 1) {
+						tree.grow();
+					}
+					return tree;
+				}
+			};
+		}
+		return new Callable<Object>() {
+			public Object call() {
+				return growTree(params, numNodes);
+			}
+		};
+	}
+	
+	/**
+	 * Multinomial sampling of the cells of a sample from a fixed set of subclones
+	 */
+	public static Callable<Object> createSample(final int numCellsPerSample) {
+		Parameters params = parameters(0.02);
+		final SimulatedTree tree = growTree(params, NUM_TREE_NODES);
+		final ArrayList<CellPopulation> subclones = new ArrayList<CellPopulation>();
+		while(subclones.size() < params.MAX_NUM_SUBCLONES - 1) {
+			subclones.clear();
+			subclones.addAll(tree.getSample().cellPopulationCounts.keySet());
+		}
+		final int numNormalCells = numCellsPerSample/10;
+		return new Callable<Object>() {
+			public Object call() {
+				TumorSample sample = tree.createSample(subclones, numCellsPerSample, numNormalCells);
+				for(CellPopulation subclone : subclones) {
+					subclone.sampleColors.clear();
+				}
+				return sample;
+			}
+		};
+	}
+	
+	/**
+	 * VAFs of a single sample with the per-sample baseline (LegacyFrequencies)
+	 */
+	public static Callable<Object> sampleFrequencies(final double probCNV) {
+		SimulatedTree tree = growTree(parameters(probCNV), NUM_TREE_NODES);
+		final TumorSample sample = tree.getSample();
+		return new Callable<Object>() {
+			public Object call() {
+				return LegacyFrequencies.getSNVFrequencies(sample, probCNV);
+			}
+		};
+	}
+	
+	/**
+	 * VAFs of all the samples in one pass over the tree (SimulatedTree.getSNVFrequencies)
+	 */
+	public static Callable<Object> treeFrequencies(double probCNV) {
+		final SimulatedTree tree = growTree(parameters(probCNV), NUM_TREE_NODES);
+		final ArrayList<TumorSample> samples = getSamples(tree, NUM_SAMPLES);
+		return new Callable<Object>() {
+			public Object call() {
+				return tree.getSNVFrequencies(samples);
+			}
+		};
+	}
+	
+	/**
+	 * Simulated coverage and sequencing error of the VAFs of all the samples
+	 */
+	public static Callable<Object> addNoise(final int coverage) {
+		final Parameters params = parameters(0.02);
+		SimulatedTree tree = growTree(params, NUM_TREE_NODES);
+		final VAFMatrix freq = tree.getSNVFrequencies(getSamples(tree, NUM_SAMPLES));
+		final BinomialSampler binomial = new BinomialSampler(new RandomStream(SEED));
+		return new Callable<Object>() {
+			public Object call() {
+				return LineageSimulator.addNoise(freq, coverage, params, binomial);
+			}
+		};
+	}
+	
+	/**
+	 * Coverage sweep (the given coverage, half and a quarter of it) of the VAFs of all the samples
+	 * @param nested true: downsampling of the reads of the highest coverage, false: independent reads per coverage
+	 */
+	public static Callable<Object> coverageSweep(int coverage, final boolean nested) {
+		final Parameters params = parameters(0.02);
+		SimulatedTree tree = growTree(params, NUM_TREE_NODES);
+		final VAFMatrix freq = tree.getSNVFrequencies(getSamples(tree, NUM_SAMPLES));
+		final int[] coverages = {coverage, coverage/2, coverage/4};
+		final BinomialSampler binomial = new BinomialSampler(new RandomStream(SEED));
+		final HypergeometricSampler hypergeometric = new HypergeometricSampler(new RandomStream(SEED + 1));
+		return new Callable<Object>() {
+			public Object call() {
+				if(nested) {
+					return LineageSimulator.addNestedNoise(freq, coverages, params, binomial, hypergeometric);
+				}
+				ArrayList<VAFMatrix> noisyFrequencies = new ArrayList<VAFMatrix>();
+				for(int coverage : coverages) {
+					noisyFrequencies.add(LineageSimulator.addNoise(freq, coverage, params, binomial));
+				}
+				return noisyFrequencies;
+			}
+		};
+	}
+	
+	/**
+	 * Output of the VAFs of all the samples to a temporary file
+	 */
+	public static Callable<Object> writeVAFs(boolean sampleProfile) throws Exception {
+		SimulatedTree tree = growTree(parameters(0.02), NUM_TREE_NODES);
+		final VAFMatrix freq = tree.getSNVFrequencies(getSamples(tree, NUM_SAMPLES));
+		final long[] profiles = sampleProfile ? freq.getProfiles() : null;
+		final File file = File.createTempFile("VAF", ".txt");
+		file.deleteOnExit();
+		final TreeOutput output = new TreeOutput.Directory(file.getParent());
+		return new Callable<Object>() {
+			public Object call() throws IOException {
+				LineageSimulator.writeVAFsToFile(output, file.getName(), freq, profiles);
+				return file;
+			}
+		};
+	}
+	
+	/**
+	 * Output of the read counts of all the samples at the given coverage to a temporary file
+	 */
+	public static Callable<Object> writeReadCounts(final int coverage) throws Exception {
+		final Parameters params = parameters(0.02);
+		SimulatedTree tree = growTree(params, NUM_TREE_NODES);
+		VAFMatrix freq = tree.getSNVFrequencies(getSamples(tree, NUM_SAMPLES));
+		final VAFMatrix noisyFreq = LineageSimulator.addNoise(freq, coverage, params, new BinomialSampler(new RandomStream(SEED)));
+		final File file = File.createTempFile("READS", ".txt");
+		file.deleteOnExit();
+		final TreeOutput output = new TreeOutput.Directory(file.getParent());
+		return new Callable<Object>() {
+			public Object call() throws IOException {
+				LineageSimulator.writeReadCountsToFile(output, file.getName(), noisyFreq, coverage, null, false);
+				return file;
+			}
+		};
+	}
+}
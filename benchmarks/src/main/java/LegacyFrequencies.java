@@ -0,0 +1,158 @@
+/*
+ * Program POMEGRANATE for cell lineage tree simulation and sampling
+ * by Victoria Popic (viq@stanford.edu) 2014-2015
+ *
+ * MIT License
+ *
+ * Copyright (c) 2014 Victoria Popic.
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The per-sample VAF computation of TumorSample before the single-pass tree kernel
+ * (SimulatedTree.getSNVFrequencies), kept as the baseline of the frequency benchmark.
+ */
+public class LegacyFrequencies {
+
+	/**
+	 * Returns the VAF of each SNV in the sample (one HashMap entry per SNV)
+	 */
+	public static HashMap<Mutation.SNV, Double> getSNVFrequencies(TumorSample sample, double probCNV) {
+		// count how many cells contain each mutation
+		if(probCNV == 0) {
+			HashMap<Mutation, Long> snvCounts = new HashMap<Mutation, Long>();
+			long totalNumCells = 0;
+			for(CellPopulation c : sample.cellPopulationCounts.keySet()) {
+				for(Mutation snv : c.getMutations()) {
+					if(snvCounts.containsKey(snv)) {
+						long count = snvCounts.get(snv).longValue();
+						snvCounts.put(snv, count + sample.cellPopulationCounts.get(c));
+					} else {
+						snvCounts.put(snv, (long) sample.cellPopulationCounts.get(c));
+					}
+				}
+				totalNumCells += sample.cellPopulationCounts.get(c);
+			}
+			totalNumCells += sample.numNormalCells;
+					
+			HashMap<Mutation.SNV, Double> freq = new HashMap<Mutation.SNV, Double>();
+			for(Mutation snv : snvCounts.keySet()) {
+				freq.put((Mutation.SNV) snv, (double) snvCounts.get(snv)/(2*totalNumCells));
+			}
+			return freq;
+		}
+		
+		// copy counts are accumulated as longs, since samples can contain up to ~10^9 cells
+		HashMap<Mutation.SNV, Long> ref_haplotype_counts = new HashMap<Mutation.SNV, Long>();
+		HashMap<Mutation.SNV, Long> var_haplotype_counts = new HashMap<Mutation.SNV, Long>();
+		HashMap<Mutation.SNV, Boolean> affectedSNVs = new HashMap<Mutation.SNV, Boolean>();
+		// mutation lineages of the sampled populations (assembled once)
+		HashMap<CellPopulation, ArrayList<Mutation>> lineages = new HashMap<CellPopulation, ArrayList<Mutation>>();
+		for(CellPopulation c : sample.cellPopulationCounts.keySet()) {
+			lineages.put(c, c.getMutations());
+		}
+		for(CellPopulation c : sample.cellPopulationCounts.keySet()) {
+			ArrayList<Mutation> mutations = lineages.get(c);
+			int[] haplotype_ref_counts = new int[mutations.size()]; // how many copies of the reference exit
+			int[] haplotype_var_counts = new int[mutations.size()]; // how many copies of the SNV exist
+			for(int i = 0; i < mutations.size(); i++) {
+				Mutation m = mutations.get(i);
+				if(m instanceof Mutation.CNV) {
+					continue;
+				}
+				Mutation.SNV snv = (Mutation.SNV) m;
+				// find all the CNVs affecting this locus
+				for(int j = 0; j < mutations.size(); j++) {
+					Mutation m2 = mutations.get(j); 
+					if(m2 instanceof Mutation.SNV) continue;
+					Mutation.CNV cnv = (Mutation.CNV) m2;
+					if(cnv.chr == snv.chr) {
+						if((snv.position <= Mutation.CHROMOSOME_LENGTHS[snv.chr]/2 && cnv.arm == 0) || 
+								(snv.position > Mutation.CHROMOSOME_LENGTHS[snv.chr]/2 && cnv.arm == 1)) {
+							// matched the arm
+							affectedSNVs.put(snv, true);
+							if(j < i) {
+								// CNV happened before the SNV occurred 
+								haplotype_ref_counts[i]++;
+							} else {
+								if(cnv.haplotype == snv.haplotype) {
+									haplotype_var_counts[i]++;
+								} else {
+									haplotype_ref_counts[i]++;
+								}
+							}
+						}
+					}
+				}
+				
+				long numCells = sample.cellPopulationCounts.get(c);
+				if(ref_haplotype_counts.containsKey(snv)) {
+					long count_ref = ref_haplotype_counts.get(snv).longValue();
+					ref_haplotype_counts.put(snv, count_ref + numCells*(haplotype_var_counts[i] + haplotype_ref_counts[i] + 2));
+					long count_var = var_haplotype_counts.get(snv).longValue();
+					var_haplotype_counts.put(snv, count_var + numCells*(haplotype_var_counts[i] + 1));
+				} else {
+					ref_haplotype_counts.put(snv, numCells*(haplotype_var_counts[i] + haplotype_ref_counts[i] + 2));
+					var_haplotype_counts.put(snv, numCells*(haplotype_var_counts[i] + 1));
+				}
+			}
+		}
+		for(Mutation.SNV s : ref_haplotype_counts.keySet()) {
+			for(CellPopulation c : sample.cellPopulationCounts.keySet()) {
+				ArrayList<Mutation> mutations = lineages.get(c);
+				boolean contains = false;
+				int numCNVs = 0;
+				for(int i = 0; i < mutations.size(); i++) {
+					Mutation m = mutations.get(i);
+					if(m instanceof Mutation.CNV) {
+						Mutation.CNV cnv = (Mutation.CNV) m;
+						if(cnv.chr == s.chr) {
+							if((s.position <= Mutation.CHROMOSOME_LENGTHS[s.chr]/2 && cnv.arm == 0) || 
+									(s.position > Mutation.CHROMOSOME_LENGTHS[s.chr]/2 && cnv.arm == 1)) {
+								numCNVs++;
+								affectedSNVs.put(s, true);							}
+						}
+					}
+					if(s.equals(m)) {
+						contains = true;
+						break;
+					}
+				}
+				if(!contains) {
+					long count_ref = ref_haplotype_counts.get(s).longValue();
+					ref_haplotype_counts.put(s, count_ref + (long) sample.cellPopulationCounts.get(c)*(2 + numCNVs));
+				}
+			}
+			// add normal contribution
+			long count_ref = ref_haplotype_counts.get(s).longValue();
+			ref_haplotype_counts.put(s, count_ref + (long) sample.numNormalCells*(2));
+		}
+		HashMap<Mutation.SNV, Double> freq = new HashMap<Mutation.SNV, Double>();
+		for(Mutation.SNV snv : ref_haplotype_counts.keySet()) {
+			freq.put(snv, (double)var_haplotype_counts.get(snv)/ref_haplotype_counts.get(snv));
+		}
+		sample.numCNVAffectedSNVs = affectedSNVs.keySet().size();
+		return freq;
+	}
+}
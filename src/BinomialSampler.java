@@ -0,0 +1,212 @@
+/*
+ * Program POMEGRANATE for cell lineage tree simulation and sampling
+ * by Victoria Popic (viq@stanford.edu) 2014-2015
+ *
+ * MIT License
+ *
+ * Copyright (c) 2014 Victoria Popic.
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+
+
+import java.util.Random;
+
+/**
+ * Reusable binomial random variate generator
+ * Uses inversion for small means (n*min(p,1-p) <= 30) and the BTPE 
+ * acceptance/rejection algorithm of Kachitvichyanukul and Schmeiser (1988) otherwise.
+ * The setup of each algorithm is cached for repeated (n, p) pairs,
+ * no objects are allocated per draw. 
+ * Instances are not thread-safe, each sampler should be used by a single thread.
+ */
+public class BinomialSampler {
+	private static final double INVERSION_MEAN_THRESHOLD = 30.0;
+	
+	private final Random randGen;
+	
+	// inversion setup
+	private int invN = -1;
+	private double invP = Double.NaN;
+	private double invQ, invQN;
+	private int invBound;
+	
+	// BTPE setup
+	private int btpeN = -1;
+	private double btpeP = Double.NaN;
+	private double r, q, fm, p1, xm, xl, xr, c, laml, lamr, p2, p3, p4;
+	private int m;
+	
+	public BinomialSampler(Random rand) {
+		randGen = rand;
+	}
+	
+	/**
+	 * Returns the number of successes in n independent trials
+	 * with success probability p
+	 */
+	public int sample(int n, double p) {
+		if(n <= 0 || p <= 0) {
+			return 0;
+		}
+		if(p >= 1) {
+			return n;
+		}
+		if(p <= 0.5) {
+			if(n*p <= INVERSION_MEAN_THRESHOLD) {
+				return inversion(n, p);
+			} 
+			return btpe(n, p);
+		} else {
+			double pc = 1.0 - p;
+			if(n*pc <= INVERSION_MEAN_THRESHOLD) {
+				return n - inversion(n, pc);
+			}
+			return n - btpe(n, pc);
+		}
+	}
+	
+	/**
+	 * Sequential search inversion, p <= 0.5
+	 */
+	private int inversion(int n, double p) {
+		if(n != invN || p != invP) {
+			invN = n;
+			invP = p;
+			invQ = 1.0 - p;
+			invQN = Math.exp(n*Math.log(invQ));
+			double np = n*p;
+			invBound = (int) Math.min(n, np + 10.0*Math.sqrt(np*invQ + 1));
+		}
+		int x = 0;
+		double px = invQN;
+		double u = randGen.nextDouble();
+		while(u > px) {
+			x++;
+			if(x > invBound) {
+				x = 0;
+				px = invQN;
+				u = randGen.nextDouble();
+			} else {
+				u -= px;
+				px = ((n - x + 1)*p*px)/(x*invQ);
+			}
+		}
+		return x;
+	}
+	
+	/**
+	 * BTPE algorithm, p <= 0.5 and n*p > 30
+	 */
+	private int btpe(int n, double p) {
+		if(n != btpeN || p != btpeP) {
+			btpeN = n;
+			btpeP = p;
+			r = p;
+			q = 1.0 - r;
+			fm = n*r + r;
+			m = (int) Math.floor(fm);
+			p1 = Math.floor(2.195*Math.sqrt(n*r*q) - 4.6*q) + 0.5;
+			xm = m + 0.5;
+			xl = xm - p1;
+			xr = xm + p1;
+			c = 0.134 + 20.5/(15.3 + m);
+			double a = (fm - xl)/(fm - xl*r);
+			laml = a*(1.0 + a/2.0);
+			a = (xr - fm)/(xr*q);
+			lamr = a*(1.0 + a/2.0);
+			p2 = p1*(1.0 + 2.0*c);
+			p3 = p2 + c/laml;
+			p4 = p3 + c/lamr;
+		}
+		double nrq = n*r*q;
+		while(true) {
+			double u = randGen.nextDouble()*p4;
+			double v = randGen.nextDouble();
+			int y;
+			if(u <= p1) { 
+				// triangular region, immediate acceptance
+				return (int) Math.floor(xm - p1*v + u);
+			} 
+			if(u <= p2) { 
+				// parallelograms
+				double x = xl + (u - p1)/c;
+				v = v*c + 1.0 - Math.abs(m - x + 0.5)/p1;
+				if(v > 1.0) continue;
+				y = (int) Math.floor(x);
+			} else if(u <= p3) { 
+				// left exponential tail
+				y = (int) Math.floor(xl + Math.log(v)/laml);
+				if(y < 0 || v == 0.0) continue;
+				v = v*(u - p2)*laml;
+			} else { 
+				// right exponential tail
+				y = (int) Math.floor(xr - Math.log(v)/lamr);
+				if(y > n || v == 0.0) continue;
+				v = v*(u - p3)*lamr;
+			}
+			
+			int k = Math.abs(y - m);
+			if(k <= 20 || k >= nrq/2.0 - 1) {
+				// explicit evaluation of f(y)/f(m)
+				double s = r/q;
+				double a = s*(n + 1);
+				double f = 1.0;
+				if(m < y) {
+					for(int i = m + 1; i <= y; i++) {
+						f *= (a/i - s);
+					}
+				} else if(m > y) {
+					for(int i = y + 1; i <= m; i++) {
+						f /= (a/i - s);
+					}
+				}
+				if(v > f) continue;
+				return y;
+			}
+			
+			// squeeze using upper and lower bounds on log(f(y))
+			double rho = (k/nrq)*((k*(k/3.0 + 0.625) + 0.16666666666666666)/nrq + 0.5);
+			double t = -((double) k*k)/(2*nrq);
+			double logV = Math.log(v);
+			if(logV < t - rho) return y;
+			if(logV > t + rho) continue;
+			
+			// final acceptance/rejection test with Stirling's approximation
+			double x1 = y + 1;
+			double f1 = m + 1;
+			double z = n + 1 - m;
+			double w = n - y + 1;
+			double x2 = x1*x1;
+			double f2 = f1*f1;
+			double z2 = z*z;
+			double w2 = w*w;
+			double bound = xm*Math.log(f1/x1) + (n - m + 0.5)*Math.log(z/w) + (y - m)*Math.log(w*r/(x1*q)) 
+					+ stirlingCorrection(f1, f2) + stirlingCorrection(z, z2) 
+					+ stirlingCorrection(x1, x2) + stirlingCorrection(w, w2);
+			if(logV > bound) continue;
+			return y;
+		}
+	}
+	
+	private static double stirlingCorrection(double x, double x2) {
+		return (13680. - (462. - (132. - (99. - 140./x2)/x2)/x2)/x2)/x/166320.;
+	}
+}
@@ -28,30 +28,45 @@
 
 import java.awt.Color;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 public class CellPopulation {
 	
 	/** Number of cells in the population */
 	protected int size;
-	/** List of mutations in the cells */
-	protected ArrayList<Mutation> mutations;
+	/** 
+	 * Mutation acquired by this population; the cells also carry all the mutations
+	 * of the ancestral populations, which are shared through the parent pointers 
+	 */
+	protected Mutation mutation;
+	protected CellPopulation parent;
+	/** Number of mutations in the cells (length of the path from the GL root) */
+	protected int depth;
 	/** Number of cells in the population, including all the undead descendants */
-	protected int subtreeSize;
+	protected long subtreeSize;
 
 	protected boolean isDead;
 	protected boolean isGermline;
-	protected int id;	
-	private static int counter = 0;
+	protected int id; // unique within the tree
 	/** For visualization */
 	protected ArrayList<Color> sampleColors;
 	
-	public CellPopulation() {
+	public CellPopulation(int populationId) {
+		this(populationId, null, null);
+	}
+	
+	/**
+	 * Creates a descendant population of parentPopulation 
+	 * that acquired the given mutation
+	 */
+	public CellPopulation(int populationId, CellPopulation parentPopulation, Mutation newMutation) {
 		size = 0;
-		mutations = new ArrayList<Mutation>();
+		parent = parentPopulation;
+		mutation = newMutation;
+		depth = (parent != null) ? parent.depth + 1 : 0;
 		isDead = false;
 		isGermline = false;
-		id = counter;
-		counter++;
+		id = populationId;
 		sampleColors = new ArrayList<Color>();
 	}
 	
@@ -63,16 +78,38 @@ public class CellPopulation {
 		return size;
 	}
 
-	public void addMutation(Mutation snv) {
-		mutations.add(snv);
+	public CellPopulation getParent() {
+		return parent;
 	}
 	
-	public void setMutations(ArrayList<Mutation> populationMutations) {
-		mutations = new ArrayList<Mutation>(populationMutations);
+	public int getNumMutations() {
+		return depth;
 	}
 	
+	/**
+	 * Returns all the mutations in the cells ordered from the GL root;
+	 * the list is assembled by walking up the lineage, so it costs O(depth) allocation per call
+	 * (hot paths walk the parent pointers or use containsMutation instead)
+	 */
 	public ArrayList<Mutation> getMutations() {
-		return mutations;
+		Mutation[] lineage = new Mutation[depth];
+		for(CellPopulation p = this; p.depth > 0; p = p.parent) {
+			lineage[p.depth-1] = p.mutation;
+		}
+		return new ArrayList<Mutation>(Arrays.asList(lineage));
+	}
+	
+	/**
+	 * Returns true if the cells carry the given mutation
+	 * (walks up the lineage comparing mutation ids, without allocating)
+	 */
+	public boolean containsMutation(Mutation m) {
+		for(CellPopulation p = this; p.depth > 0; p = p.parent) {
+			if(p.mutation.id == m.id) {
+				return true;
+			}
+		}
+		return false;
 	}
 	
 	public boolean isDead() {
@@ -92,31 +129,23 @@ public class CellPopulation {
 	}
 	
 	public Mutation getLastMutation() {
-		if(mutations.size() > 0) {
-			return mutations.get(mutations.size()-1);
-		} else {
-			return null;
-		}
+		return mutation;
 	}
 	
-	public void setSubtreeSize(int size) {
+	public void setSubtreeSize(long size) {
 		subtreeSize = size;
 	}
 	
-	public int getSubtreeSize() {
+	public long getSubtreeSize() {
 		return subtreeSize;
 	}
 	
 	public boolean isCNV() {
-		Mutation last = getLastMutation();
-		if(last != null && (last instanceof Mutation.CNV)) {
-			return true;
-		}
-		return false;
+		return mutation instanceof Mutation.CNV;
 	}
 	
 	public String getName() {
-		return getLastMutation().name;// + "," + size;
+		return getLastMutation().getName();// + "," + size;
 	}
 	
 	@Override
@@ -0,0 +1,220 @@
+/*
+ * Program POMEGRANATE for cell lineage tree simulation and sampling
+ * by Victoria Popic (viq@stanford.edu) 2014-2015
+ *
+ * MIT License
+ *
+ * Copyright (c) 2014 Victoria Popic.
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Background gzip compression of the output files.
+ * The simulation threads write each file to an in-memory buffer; on close, the buffer
+ * is handed to a dedicated compression thread, which deflates it into the underlying output
+ * (file name + ".gz"), so compression overlaps with the simulation.
+ * The hand-off queue is bounded: when it is full, the closing thread compresses the file itself,
+ * which throttles the simulation instead of buffering an unbounded amount of output.
+ * Without a queue (capacity 0), the files are compressed directly by the threads writing them
+ * (e.g. when the output is already persisted by background writer threads).
+ */
+public class CompressionStage {
+	public static final String SUFFIX = ".gz";
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	private int level;
+	private ThreadPoolExecutor compressor;
+	private volatile IOException failure;
+	private AtomicLong rawBytes = new AtomicLong();
+	private AtomicLong compressedBytes = new AtomicLong();
+	// wall time span of the compressions (the compressions of several threads overlap)
+	private long firstStart = -1;
+	private long lastEnd = -1;
+	
+	/**
+	 * @param level deflate level (0-9)
+	 * @param queueCapacity max number of buffered files waiting for compression (0: no compression thread)
+	 */
+	public CompressionStage(int level, int queueCapacity) {
+		if(level < 0 || level > 9) {
+			throw new IllegalArgumentException("Invalid compression level: " + level);
+		}
+		this.level = level;
+		if(queueCapacity <= 0) {
+			return;
+		}
+		compressor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, 
+				new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "compression");
+						t.setDaemon(true);
+						return t;
+					}
+				}, new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+	
+	/**
+	 * Returns a destination that compresses the files written to it into the given output
+	 */
+	public TreeOutput wrap(final TreeOutput output) {
+		return new TreeOutput() {
+			public OutputStream open(String fileName) throws IOException {
+				checkFailure();
+				if(compressor == null) {
+					return openCompressed(output, fileName);
+				}
+				return new PendingFile(output, fileName);
+			}
+			
+			public String getLocation() {
+				return output.getLocation();
+			}
+		};
+	}
+	
+	/**
+	 * Waits for the pending files to be compressed and stops the compression thread
+	 * @throws IOException the first failure of the background compression
+	 */
+	public void close() throws IOException {
+		if(compressor != null) {
+			compressor.shutdown();
+			try {
+				while(!compressor.awaitTermination(1, TimeUnit.SECONDS));
+			} catch (InterruptedException e) {
+				throw new IOException("Interrupted while waiting for the compression of the output files");
+			}
+		}
+		checkFailure();
+	}
+	
+	/**
+	 * Total size of the files before compression
+	 */
+	public long getRawBytes() {
+		return rawBytes.get();
+	}
+	
+	/**
+	 * Total size of the compressed files
+	 */
+	public long getCompressedBytes() {
+		return compressedBytes.get();
+	}
+	
+	/**
+	 * Wall time from the start of the first compression to the end of the last one (in seconds)
+	 */
+	public synchronized double getWallSeconds() {
+		return (firstStart >= 0) ? (lastEnd - firstStart) / 1e9 : 0;
+	}
+	
+	private synchronized void addInterval(long start, long end) {
+		if(firstStart < 0 || start < firstStart) {
+			firstStart = start;
+		}
+		lastEnd = Math.max(lastEnd, end);
+	}
+	
+	private void checkFailure() throws IOException {
+		if(failure != null) {
+			throw failure;
+		}
+	}
+	
+	private void compress(TreeOutput output, String fileName, byte[] data, int length) throws IOException {
+		OutputStream out = openCompressed(output, fileName);
+		try {
+			out.write(data, 0, length);
+		} finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * Opens a gzip stream to the given file of the output; the sizes and the time
+	 * from opening to closing the stream are added to the stage statistics on close
+	 */
+	private OutputStream openCompressed(TreeOutput output, String fileName) throws IOException {
+		final long start = System.nanoTime();
+		final TreeOutput.CountingOutputStream counter = new TreeOutput.CountingOutputStream(output.open(fileName + SUFFIX));
+		return new GZIPOutputStream(counter, BUFFER_SIZE) {
+			private boolean closed = false;
+			{ def.setLevel(level); }
+			
+			public void close() throws IOException {
+				if(closed) return;
+				closed = true;
+				finish();
+				long length = def.getBytesRead(); // the deflater is released on close
+				super.close();
+				rawBytes.addAndGet(length);
+				compressedBytes.addAndGet(counter.getCount());
+				addInterval(start, System.nanoTime());
+			}
+		};
+	}
+	
+	/**
+	 * In-memory buffer of an output file, handed to the compression thread on close
+	 */
+	private class PendingFile extends ByteArrayOutputStream {
+		private TreeOutput output;
+		private String fileName;
+		private boolean closed = false;
+		
+		public PendingFile(TreeOutput output, String fileName) {
+			super(BUFFER_SIZE);
+			this.output = output;
+			this.fileName = fileName;
+		}
+		
+		public void close() throws IOException {
+			if(closed) return;
+			closed = true;
+			final byte[] data = buf;
+			final int length = count;
+			buf = null;
+			compressor.execute(new Runnable() {
+				public void run() {
+					try {
+						compress(output, fileName, data, length);
+					} catch (IOException e) {
+						if(failure == null) {
+							failure = new IOException("Failed to write the compressed file: " + output.getPath(fileName + SUFFIX), e);
+						}
+					}
+				}
+			});
+			checkFailure();
+		}
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * Program POMEGRANATE for cell lineage tree simulation and sampling
+ * by Victoria Popic (viq@stanford.edu) 2014-2015
+ *
+ * MIT License
+ *
+ * Copyright (c) 2014 Victoria Popic.
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+
+
+import java.awt.Color;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Renders lineage trees in DOT format (for visualization with Graphviz)
+ * Node attributes are formatted into reusable buffers and streamed to the output.
+ */
+public class DOTWriter {
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	
+	private Appendable out;
+	private int maxPopulationSize;
+	private FixedDecimalFormat df = new FixedDecimalFormat(2);
+	private StringBuilder width = new StringBuilder();
+	private StringBuilder color = new StringBuilder();
+	
+	public DOTWriter(Appendable output, int maxPopulationSize) {
+		out = output;
+		this.maxPopulationSize = maxPopulationSize;
+	}
+	
+	/**
+	 * Starts the graph; with ranked = true the tree is laid out top to bottom
+	 */
+	public void begin(boolean ranked) throws IOException {
+		out.append("digraph G { \n");
+		if(ranked) {
+			out.append("rankdir=TB;\n");
+		}
+	}
+	
+	public void edge(int from, int to) throws IOException {
+		out.append(Integer.toString(from)).append(" -> ").append(Integer.toString(to)).append(";\n");
+	}
+	
+	public void germlineNode(int id) throws IOException {
+		out.append(Integer.toString(id)).append(" [label=\"GL\" fontname=\"arial-bold\" fontsize=56 width=5 height=5];\n");
+	}
+	
+	/**
+	 * Writes a population node, filled with the colors of the samples that include it (if any)
+	 */
+	public void node(int id, CharSequence name, int size, boolean isCNV, boolean isDead, List<Color> sampleColors) throws IOException {
+		color.setLength(0);
+		int numColors = (sampleColors != null) ? sampleColors.size() : 0;
+		if(numColors > 0) {
+			color.append('"');
+			for(int i = 0; i < numColors; i++) {
+				if(i != 0) {
+					color.append(':');
+				}
+				appendHexColor(color, sampleColors.get(i));
+			}
+			color.append('"');
+		} else if(isDead) {
+			color.append("grey");
+		} else {
+			color.append("white");
+		}
+		
+		out.append(Integer.toString(id));
+		if(isCNV) {
+			out.append(" [shape=star style=filled fillcolor=").append(color);
+			out.append(" fontname=\"helvetica-bold\" fontsize=42 label=\"").append(name).append("\"];\n");
+		} else {
+			width.setLength(0);
+			df.format(5*((double)size/maxPopulationSize), width);
+			out.append(numColors > 1 ? " [shape=circle style=wedged color=" : " [shape=circle style=filled fillcolor=").append(color);
+			out.append(" fontname=\"helvetica-bold\" fontsize=56 label=\"").append(name).append('"');
+			out.append(" width=").append(width).append(" height=2 ];\n");
+		}
+	}
+	
+	/**
+	 * Writes the legend with the color of each sample
+	 */
+	public void legend(List<Color> sampleColors) throws IOException {
+		out.append('{');
+		out.append("rank=sink;\n");
+		out.append("Legend[shape=none, margin=0, label=");
+		out.append("<<TABLE border=\"0\" cellborder=\"0\" cellspacing=\"0\"> \n");
+		out.append("<TR>");
+		for(int i = 1; i <= sampleColors.size(); i++) {
+			color.setLength(0);
+			color.append('"');
+			appendHexColor(color, sampleColors.get(i-1));
+			color.append('"');
+			out.append("<TD width=\"200\" height=\"200\" colspan=\"1\"><FONT POINT-SIZE=\"36.0\"><B>Sample ").append(Integer.toString(i));
+			out.append("</B></FONT></TD><TD width=\"200\" height=\"200\" colspan=\"1\" BGCOLOR=").append(color).append("></TD>\n");
+		}
+		out.append("</TR>");
+		out.append("</TABLE>>];\n");
+		out.append("} \n");
+	}
+	
+	public void end() throws IOException {
+		out.append('}');
+	}
+	
+	private static void appendHexColor(StringBuilder sb, Color c) {
+		sb.append('#');
+		appendHexByte(sb, c.getRed());
+		appendHexByte(sb, c.getGreen());
+		appendHexByte(sb, c.getBlue());
+	}
+	
+	private static void appendHexByte(StringBuilder sb, int v) {
+		sb.append(HEX_DIGITS[v >> 4]).append(HEX_DIGITS[v & 0xf]);
+	}
+}
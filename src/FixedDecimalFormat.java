@@ -0,0 +1,101 @@
+/*
+ * Program POMEGRANATE for cell lineage tree simulation and sampling
+ * by Victoria Popic (viq@stanford.edu) 2014-2015
+ *
+ * MIT License
+ *
+ * Copyright (c) 2014 Victoria Popic.
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+
+/**
+ * Fast formatter of doubles with a fixed maximum number of fraction digits
+ * Produces the same output as DecimalFormat("#.###...") (HALF_EVEN rounding, 
+ * no trailing zeros, no grouping) without allocating per formatted value.
+ * Instances are not thread-safe.
+ */
+public class FixedDecimalFormat {
+	/** Values up to this magnitude are rounded using long arithmetic */
+	private static final double MAX_FAST_VALUE = 1e6;
+	/** Scaled values closer than this to a rounding tie are formatted by DecimalFormat */
+	private static final double TIE_EPSILON = 1e-5;
+	private static final long[] POWERS_OF_10 = {1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L};
+	
+	private final int numDigits;
+	private final long scale;
+	private final char decimalSeparator;
+	private final DecimalFormat fallbackFormat;
+	
+	public FixedDecimalFormat(int maxFractionDigits) {
+		if(maxFractionDigits < 0 || maxFractionDigits >= POWERS_OF_10.length) {
+			throw new IllegalArgumentException("Unsupported number of fraction digits: " + maxFractionDigits);
+		}
+		numDigits = maxFractionDigits;
+		scale = POWERS_OF_10[numDigits];
+		decimalSeparator = DecimalFormatSymbols.getInstance().getDecimalSeparator();
+		String pattern = "#";
+		if(numDigits > 0) {
+			pattern += ".";
+			for(int i = 0; i < numDigits; i++) {
+				pattern += "#";
+			}
+		}
+		fallbackFormat = new DecimalFormat(pattern);
+	}
+	
+	/**
+	 * Appends the formatted value to the buffer
+	 */
+	public void format(double v, StringBuilder sb) {
+		double abs = Math.abs(v);
+		double x = abs*scale;
+		// DecimalFormat rounds based on the shortest decimal representation of the value,
+		// so values close to a rounding tie and large/special values are delegated to it
+		if(Double.isNaN(v) || abs >= MAX_FAST_VALUE || Math.abs(x - Math.floor(x) - 0.5) < TIE_EPSILON) {
+			sb.append(fallbackFormat.format(v));
+			return;
+		}
+		long units = (long) Math.rint(x);
+		if(v < 0 || (v == 0 && 1/v < 0)) {
+			sb.append('-');
+		}
+		sb.append(units/scale);
+		long fractionUnits = units % scale;
+		if(fractionUnits == 0) {
+			return;
+		}
+		// strip the trailing zeros
+		int digits = numDigits;
+		while(fractionUnits % 10 == 0) {
+			fractionUnits /= 10;
+			digits--;
+		}
+		sb.append(decimalSeparator);
+		for(long d = fractionUnits*10; d < POWERS_OF_10[digits]; d *= 10) {
+			sb.append('0');
+		}
+		sb.append(fractionUnits);
+	}
+}
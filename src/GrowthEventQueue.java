@@ -0,0 +1,178 @@
+/*
+ * Program POMEGRANATE for cell lineage tree simulation and sampling
+ * by Victoria Popic (viq@stanford.edu) 2014-2015
+ *
+ * MIT License
+ *
+ * Copyright (c) 2014 Victoria Popic.
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Event-driven alternative to the per-iteration rolls of the tree growth.
+ * In each growth iteration, an undead population dies with probability PROB_DEATH (except the GL root),
+ * and otherwise acquires an SNV or a CNV with probabilities PROB_SNV and PROB_CNV;
+ * the number of iterations until its next event (death or division) is therefore geometric.
+ * The queue keeps the iteration of the next event of each population in a calendar of per-iteration buckets
+ * (linked lists threaded through a per-population array), so the growth only pays O(1) for each event that happens;
+ * the rare events scheduled beyond the calendar window are kept in a binary heap.
+ * Instances are not thread-safe, each queue should be used by a single thread.
+ */
+public class GrowthEventQueue {
+	public static final int DEATH = 0;
+	public static final int SNV = 1;
+	public static final int CNV = 2;
+	public static final int NONE = -1;
+	
+	private static final int NUM_BUCKETS = 1024; // calendar window (power of 2)
+	private static final int ID_BITS = 31;
+	
+	private Random randGen;
+	private double probDeath;
+	private double probSNV;
+	private double probCNV;
+	/** Per iteration event probabilities of the GL root (which cannot die) and the other populations */
+	private double rootEventProb;
+	private double eventProb;
+	private double rootLogNoEvent;
+	private double logNoEvent;
+	
+	/** First population of each bucket and the next population in the same bucket (by population id) */
+	private int[] buckets = new int[NUM_BUCKETS];
+	private int[] nextInBucket = new int[1024];
+	/** Bucket being processed */
+	private int currentIteration = -1;
+	private int current = NONE;
+	/** Events beyond the calendar window, keyed by iteration and population id */
+	private long[] heap = new long[16];
+	private int heapSize = 0;
+	
+	public GrowthEventQueue(Parameters params, Random r) {
+		randGen = r;
+		probDeath = params.PROB_DEATH;
+		probSNV = params.PROB_SNV;
+		probCNV = params.PROB_CNV;
+		rootEventProb = probSNV + probCNV;
+		eventProb = 1 - (1 - probDeath)*(1 - rootEventProb);
+		rootLogNoEvent = Math.log1p(-rootEventProb);
+		logNoEvent = Math.log1p(-eventProb);
+		Arrays.fill(buckets, NONE);
+	}
+	
+	/**
+	 * Schedules the next event of the given population,
+	 * which can happen starting with the iteration after lastIteration
+	 * (the iteration being processed)
+	 */
+	public void schedule(int populationId, int lastIteration, boolean isRoot) {
+		double p = isRoot ? rootEventProb : eventProb;
+		if(p <= 0) return; // no events
+		long skip = 1;
+		if(p < 1) {
+			// inverse of the geometric CDF
+			skip += (long) Math.floor(Math.log(1 - randGen.nextDouble())/(isRoot ? rootLogNoEvent : logNoEvent));
+		}
+		long iteration = lastIteration + skip;
+		if(skip < NUM_BUCKETS) {
+			if(populationId >= nextInBucket.length) {
+				nextInBucket = Arrays.copyOf(nextInBucket, Math.max(populationId + 1, 2*nextInBucket.length));
+			}
+			int bucket = (int) iteration & (NUM_BUCKETS - 1);
+			nextInBucket[populationId] = buckets[bucket];
+			buckets[bucket] = populationId;
+		} else if(iteration <= Integer.MAX_VALUE) { // otherwise beyond any run
+			push((iteration << ID_BITS) | populationId);
+		}
+	}
+	
+	/**
+	 * Returns the next population with an event in the given iteration, 
+	 * or NONE when all the events of the iteration have been returned.
+	 * Must be called for consecutive iterations.
+	 */
+	public int next(int iteration) {
+		if(iteration != currentIteration) {
+			currentIteration = iteration;
+			int bucket = iteration & (NUM_BUCKETS - 1);
+			current = buckets[bucket];
+			buckets[bucket] = NONE;
+		}
+		if(current != NONE) {
+			int populationId = current;
+			current = nextInBucket[populationId];
+			return populationId;
+		}
+		if(heapSize > 0 && (heap[0] >>> ID_BITS) == iteration) {
+			return (int) (pop() & ((1L << ID_BITS) - 1));
+		}
+		return NONE;
+	}
+	
+	/**
+	 * Returns the type of an event (DEATH, SNV or CNV), 
+	 * drawn conditionally on an event occurring
+	 */
+	public int nextEventType(boolean isRoot) {
+		if(isRoot) {
+			return (randGen.nextDouble()*rootEventProb < probSNV) ? SNV : CNV;
+		}
+		double u = randGen.nextDouble()*eventProb;
+		if(u < probDeath) {
+			return DEATH;
+		}
+		return (u < probDeath + (1 - probDeath)*probSNV) ? SNV : CNV;
+	}
+	
+	private void push(long key) {
+		if(heapSize == heap.length) {
+			heap = Arrays.copyOf(heap, 2*heapSize);
+		}
+		int i = heapSize++;
+		while(i > 0) {
+			int parent = (i-1) >>> 1;
+			if(heap[parent] <= key) break;
+			heap[i] = heap[parent];
+			i = parent;
+		}
+		heap[i] = key;
+	}
+	
+	private long pop() {
+		long top = heap[0];
+		long key = heap[--heapSize];
+		int i = 0;
+		int half = heapSize >>> 1;
+		while(i < half) {
+			int child = 2*i + 1;
+			if(child + 1 < heapSize && heap[child+1] < heap[child]) {
+				child++;
+			}
+			if(key <= heap[child]) break;
+			heap[i] = heap[child];
+			i = child;
+		}
+		heap[i] = key;
+		return top;
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * Program POMEGRANATE for cell lineage tree simulation and sampling
+ * by Victoria Popic (viq@stanford.edu) 2014-2015
+ *
+ * MIT License
+ *
+ * Copyright (c) 2014 Victoria Popic.
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+
+import java.util.Random;
+
+/**
+ * Reusable hypergeometric random variate generator
+ * (number of successes in a sample drawn without replacement).
+ * Uses inversion with a chop-down search that alternates around the mode,
+ * so the expected number of steps is proportional to the standard deviation.
+ * The log-factorials are tabulated and extended on demand.
+ * Instances are not thread-safe, each sampler should be used by a single thread.
+ */
+public class HypergeometricSampler {
+	private final Random randGen;
+	private double[] logFactorials = {0.0};
+	
+	public HypergeometricSampler(Random rand) {
+		randGen = rand;
+	}
+	
+	/**
+	 * Returns the number of successes in a sample of the given size drawn without replacement
+	 * from a population with the given number of successes
+	 */
+	public int sample(int population, int successes, int sampleSize) {
+		if(sampleSize <= 0 || successes <= 0) {
+			return 0;
+		}
+		if(sampleSize >= population) {
+			return successes;
+		}
+		if(successes >= population) {
+			return sampleSize;
+		}
+		int failures = population - successes;
+		int min = Math.max(0, sampleSize - failures);
+		int max = Math.min(sampleSize, successes);
+		int mode = (int) (((double) sampleSize + 1)*(successes + 1)/(population + 2));
+		mode = Math.max(min, Math.min(max, mode));
+		double pMode = Math.exp(logChoose(successes, mode) + logChoose(failures, sampleSize - mode) - logChoose(population, sampleSize));
+		while(true) {
+			double u = randGen.nextDouble() - pMode;
+			if(u <= 0) {
+				return mode;
+			}
+			int up = mode;
+			int down = mode;
+			double pUp = pMode;
+			double pDown = pMode;
+			while(up < max || down > min) {
+				if(up < max) {
+					pUp *= ((double) (successes - up)*(sampleSize - up))/((double) (up + 1)*(failures - sampleSize + up + 1));
+					up++;
+					u -= pUp;
+					if(u <= 0) {
+						return up;
+					}
+				}
+				if(down > min) {
+					pDown *= ((double) down*(failures - sampleSize + down))/((double) (successes - down + 1)*(sampleSize - down + 1));
+					down--;
+					u -= pDown;
+					if(u <= 0) {
+						return down;
+					}
+				}
+			}
+			// the support was exhausted due to rounding, draw again
+		}
+	}
+	
+	private double logChoose(int n, int k) {
+		return logFactorial(n) - logFactorial(k) - logFactorial(n - k);
+	}
+	
+	private double logFactorial(int n) {
+		if(n >= logFactorials.length) {
+			double[] table = new double[Math.max(n + 1, 2*logFactorials.length)];
+			System.arraycopy(logFactorials, 0, table, 0, logFactorials.length);
+			for(int i = logFactorials.length; i < table.length; i++) {
+				table[i] = table[i-1] + Math.log(i);
+			}
+			logFactorials = table;
+		}
+		return logFactorials[n];
+	}
+}
@@ -26,21 +26,29 @@
  * SOFTWARE.
 */
 
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.text.DecimalFormat;
+import java.io.OutputStream;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Formatter;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 
+import javax.management.JMException;
+
 import org.apache.commons.cli.BasicParser;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -48,7 +56,6 @@ import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
-import org.uncommons.maths.random.BinomialGenerator;
 
 /**
  * Lineage tree simulation and sampling pipeline
@@ -57,191 +64,685 @@ import org.uncommons.maths.random.BinomialGenerator;
 public class LineageSimulator {
 	protected static final Logger logger = Logger.getLogger("simulation.engine");
 	
-	public static void simulateLineageTrees(Args args) {
+	public static void simulateLineageTrees(final Args args, final Parameters params) {
 		int totalNumNodes = 0;
+		int numSimulatedTrees = 0;
+		boolean failed = false;
 		// --- grow lineage trees --- //
-		for(int t = 0; t < Parameters.NUM_TREES; t++) {
-			// create the directory to store the results for each generated tree 
-			File treeDir = new File(args.simPath + "/tree" + "_" + t);
-			treeDir.mkdirs();
-			// initial tree (only contains the root)
-			SimulatedTree lineageTree = new SimulatedTree();
+		// each tree is simulated independently by a worker thread; 
+		// results are collected in tree order
+		// each tree gets its own random stream split from the run stream
+		// in tree order, so the results do not depend on the number of threads
+		RandomStream runRandGen = new RandomStream(args.seed);
+		// with -archive, the output files of all the trees are appended to a single run archive
+		RunArchive archive = null;
+		if(args.archive) {
+			try {
+				archive = new RunArchive(args.simPath, RunArchive.DEFAULT_SEGMENT_SIZE);
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.err.println("Failed to create the run archive in: " + args.simPath);
+				System.exit(-1);
+			}
+		}
+		final RunArchive runArchive = archive;
+		// with -gzip, the output files are compressed by a background stage
+		// (by the writer threads, if any)
+		CompressionStage compression = null;
+		if(args.compressionLevel >= 0) {
+			compression = new CompressionStage(args.compressionLevel, (args.numWriters > 0) ? 0 : 2*args.numThreads);
+		}
+		final CompressionStage compressionStage = compression;
+		// the output of each completed tree is handed over to the writer threads (write-behind)
+		TreeWriter writer = null;
+		if(args.numWriters > 0) {
+			writer = new TreeWriter(args.numWriters, args.numThreads) {
+				protected TreeOutput getDestination(int treeId) {
+					return getTreeOutput(treeId, args, runArchive, compressionStage);
+				}
+			};
+		}
+		final TreeWriter treeWriter = writer;
+		// with -metrics, the phases of each tree are timed by the thread simulating it
+		final RunMetrics runMetrics = args.metrics ? new RunMetrics(params.NUM_TREES) : null;
+		// live progress for JMX monitoring
+		final SimulationProgress progress = new SimulationProgress(params.NUM_TREES, runMetrics);
+		try {
+			progress.register();
+		} catch (JMException e) {
+			logger.warning("Failed to register the progress MBean " + SimulationProgress.OBJECT_NAME + ": " + e.getMessage());
+		}
+		try {
+			ExecutorService workers = Executors.newFixedThreadPool(args.numThreads);
+			ArrayList<Future<Integer>> treeResults = new ArrayList<Future<Integer>>();
+			for(int t = 0; t < params.NUM_TREES; t++) {
+				final int treeId = t;
+				final RandomStream treeRandGen = runRandGen.split();
+				treeResults.add(workers.submit(new Callable<Integer>() {
+					public Integer call() throws Exception {
+						progress.startTree();
+						try {
+							TreeWriter.TreeResult result = (treeWriter != null) ? treeWriter.newTreeResult(treeId) : null;
+							TreeOutput output = (result != null) ? result : getTreeOutput(treeId, args, runArchive, compressionStage);
+							RunMetrics.TreeMetrics metrics = RunMetrics.TreeMetrics.NONE;
+							if(runMetrics != null) {
+								metrics = runMetrics.newTree(treeId);
+								output = metrics.meter(output);
+							}
+							int numNodes;
+							if(args.compactTree) {
+								numNodes = simulateCompactLineageTree(treeId, output, args, params, treeRandGen, metrics);
+							} else {
+								numNodes = simulateLineageTree(treeId, output, args, params, treeRandGen, metrics);
+							}
+							if(result != null) {
+								treeWriter.submit(result);
+							}
+							progress.completeTree(numNodes);
+							return numNodes;
+						} finally {
+							progress.endTree();
+						}
+					}
+				}));
+			}
+			workers.shutdown();
+			for(int t = 0; t < params.NUM_TREES; t++) {
+				try {
+					totalNumNodes += treeResults.get(t).get();
+					numSimulatedTrees++;
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+					System.err.println("Interrupted while simulating tree " + t);
+					failed = true;
+				} catch (ExecutionException e) {
+					// a writer failure is reported below
+					if(treeWriter == null || treeWriter.getFailure() == null) {
+						e.getCause().printStackTrace();
+						if(e.getCause() instanceof IOException) {
+							System.err.println("Failed to write the output files of tree " + t);
+						} else {
+							System.err.println("Failed to simulate tree " + t);
+						}
+					}
+					failed = true;
+				}
+				if(failed) {
+					// stop the simulation, but complete the output of the trees already simulated
+					workers.shutdownNow();
+					break;
+				}
+				if((t+1) % 1 == 0) logger.info("[PROGRESS] Simulated " + (t+1) + " trees.");
+			}
+			// the interrupted workers may still be writing their trees, 
+			// the output is completed once they are done
+			try {
+				workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+				System.err.println("Interrupted while waiting for the simulation threads");
+				failed = true;
+			}
+		
+			// --- complete the output --- //
+			if(treeWriter != null) {
+				try {
+					treeWriter.close();
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+					System.err.println("Interrupted while writing the output files");
+					failed = true;
+				}
+				double writtenMB = treeWriter.getWrittenBytes() / 1e6;
+				double seconds = treeWriter.getWallSeconds();
+				if(seconds > 0) {
+					logger.info("[SUMMARY] Wrote " + String.format("%.2f", writtenMB) + " MB of output, writer throughput " + String.format("%.2f", writtenMB/seconds) + " MB/s");
+				} else {
+					logger.info("[SUMMARY] Wrote " + String.format("%.2f", writtenMB) + " MB of output");
+				}
+				if(treeWriter.getFailure() != null) {
+					treeWriter.getFailure().printStackTrace();
+					System.err.println("Failed to write the output files of tree " + treeWriter.getFailedTree());
+					failed = true;
+				}
+			}
+			if(compressionStage != null) {
+				try {
+					compressionStage.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+					System.err.println("Failed to write the compressed output files");
+					failed = true;
+				}
+				double rawMB = compressionStage.getRawBytes() / 1e6;
+				double compressedMB = compressionStage.getCompressedBytes() / 1e6;
+				double seconds = compressionStage.getWallSeconds();
+				if(compressionStage.getCompressedBytes() > 0 && seconds > 0) {
+					logger.info("[SUMMARY] Compressed " + String.format("%.2f", rawMB) + " MB of output to " + String.format("%.2f", compressedMB) + " MB (ratio " + 
+							String.format("%.2f", rawMB/compressedMB) + "), writer throughput " + String.format("%.2f", rawMB/seconds) + " MB/s");
+				} else {
+					logger.info("[SUMMARY] Compressed " + String.format("%.2f", rawMB) + " MB of output");
+				}
+			}
+			if(runArchive != null) {
+				try {
+					runArchive.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+					System.err.println("Failed to close the run archive in: " + args.simPath);
+					failed = true;
+				}
+			}
+			if(failed) {
+				SortedSet<Integer> writtenTrees = (treeWriter != null) ? treeWriter.getWrittenTrees() : getCompletedTrees(treeResults);
+				System.err.println("Written trees (" + writtenTrees.size() + " / " + params.NUM_TREES + "): " + TreeWriter.toRanges(writtenTrees));
+			} else {
+				logger.info("[SUMMARY] Simulated " + numSimulatedTrees + " trees. Average number of nodes / tree = " + (double) totalNumNodes/(numSimulatedTrees));
+				if(args.metrics) {
+					writeMetrics(args, runMetrics);
+				}
+			}
+		} finally {
+			// the MBean is released for the next run in this JVM
+			try {
+				progress.unregister();
+			} catch (JMException e) {
+				logger.warning("Failed to unregister the progress MBean: " + e.getMessage());
+			}
+		}
+		if(failed) {
+			System.exit(-1);
+		}
+	}
+	
+	/**
+	 * Returns the ids of the trees whose simulation completed
+	 * (without writer threads, the output files of these trees were all written)
+	 */
+	private static SortedSet<Integer> getCompletedTrees(ArrayList<Future<Integer>> treeResults) {
+		TreeSet<Integer> completedTrees = new TreeSet<Integer>();
+		for(int t = 0; t < treeResults.size(); t++) {
+			Future<Integer> result = treeResults.get(t);
+			if(!result.isDone() || result.isCancelled()) continue;
+			try {
+				result.get();
+				completedTrees.add(t);
+			} catch (InterruptedException e) {
+				break;
+			} catch (ExecutionException e) {
+				// failed tree
+			}
+		}
+		return completedTrees;
+	}
+	
+	/**
+	 * Writes the per-tree metrics and their summary to the output directory
+	 */
+	private static void writeMetrics(Args args, RunMetrics metrics) {
+		TreeOutput output = new TreeOutput.Directory(args.simPath);
+		String fileName = METRICS_FILE + ".csv";
+		try {
+			Writer out = output.openWriter(fileName);
+			try {
+				metrics.writeCSV(out);
+			} finally {
+				out.close();
+			}
+			fileName = METRICS_FILE + ".json";
+			out = output.openWriter(fileName);
+			try {
+				metrics.writeJSON(out);
+			} finally {
+				out.close();
+			}
+		} catch (IOException e) {
+			// the trees are complete, only the metrics are missing
+			logger.warning("Failed to write the metrics to the file: " + output.getPath(fileName) + ": " + e.getMessage());
+			return;
+		}
+		logger.info("[SUMMARY] Phase time: " + metrics.getPhaseSummary() + " (" + output.getPath(METRICS_FILE + ".json") + ")");
+	}
+	
+	/**
+	 * Returns the destination of the output files of the given tree
+	 */
+	private static TreeOutput getTreeOutput(int treeId, Args args, RunArchive archive, CompressionStage compression) {
+		// the directory to store the results for each generated tree
+		TreeOutput output = (archive != null) ? archive.getTreeOutput(treeId) : new TreeOutput.Directory(args.simPath + "/tree" + "_" + treeId);
+		if(compression != null) {
+			output = compression.wrap(output);
+		}
+		return output;
+	}
+	
+	/**
+	 * Grows, samples, and outputs a single lineage tree
+	 * @return the number of nodes in the tree
+	 */
+	public static int simulateLineageTree(int t, TreeOutput output, Args args, Parameters params, RandomStream treeRandGen, RunMetrics.TreeMetrics metrics) throws IOException {
+		// initial tree (only contains the root)
+		SimulatedTree lineageTree = new SimulatedTree(params, treeRandGen);
+		return simulateLineageTree(t, lineageTree, output, args, params, treeRandGen, metrics);
+	}
+	
+	/**
+	 * Grows, samples, and outputs a single lineage tree using the primitive array tree store
+	 * @return the number of nodes in the tree
+	 */
+	public static int simulateCompactLineageTree(int t, TreeOutput output, Args args, Parameters params, RandomStream treeRandGen, RunMetrics.TreeMetrics metrics) throws IOException {
+		TreeStore lineageTree = new TreeStore(params, treeRandGen);
+		return simulateLineageTree(t, lineageTree, output, args, params, treeRandGen, metrics);
+	}
+	
+	/**
+	 * Grows, samples, and outputs the given initial tree
+	 * (the random stream of the tree must be split by the tree first)
+	 * @return the number of nodes in the tree
+	 */
+	private static <S extends LineageTree.Sample> int simulateLineageTree(int t, LineageTree<S> lineageTree, TreeOutput output, 
+			Args args, Parameters params, RandomStream treeRandGen, RunMetrics.TreeMetrics metrics) throws IOException {
+		// a failed tree is no longer active
+		try {
+			BinomialSampler noiseSampler = new BinomialSampler(treeRandGen.split());
+			HypergeometricSampler downsampler = params.NESTED_COVERAGE ? new HypergeometricSampler(treeRandGen.split()) : null;
 			// -- expand the tree --
+			metrics.enter(RunMetrics.Phase.GROW);
 			int iter = 0;
-			while(iter < Parameters.NUM_ITERATIONS || /* there must be a min number of undead nodes */
-					lineageTree.getNumNodes() < lineageTree.getNumDeadNodes() + Parameters.MIN_NUM_NODES + 1) { 
-				if(lineageTree.getNumNodes() >= lineageTree.getNumDeadNodes() + Parameters.MAX_NUM_NODES + 1) {
+			while(iter < params.NUM_ITERATIONS || /* there must be a min number of undead nodes */
+					lineageTree.getNumLiveNodes() < params.MIN_NUM_NODES + 1) { 
+				if(lineageTree.getNumLiveNodes() >= params.MAX_NUM_NODES + 1) {
 					break;
 				}
 				lineageTree.grow();
+				metrics.setTreeSize(lineageTree.getNumNodes());
 				iter++;
 			}
-			writeOutputFile(treeDir.getAbsolutePath() + "/TREE_plain.txt", lineageTree.toString());
+			metrics.add(RunMetrics.Count.NODES, lineageTree.getNumNodes());
+			metrics.enter(RunMetrics.Phase.OUTPUT);
+			writeTreeToFile(output, "TREE_plain.txt", lineageTree);
 			if(args.generateDOT) {
-				writeOutputFile(treeDir.getAbsolutePath() + "/TREE.dot", lineageTree.toDOT());
+				writeDOTToFile(output, "TREE.dot", lineageTree, null);
 			}
 			logger.fine("Generated tree " + t + " with " + lineageTree.getNumNodes() + " nodes.");
-			totalNumNodes += lineageTree.getNumNodes();
-			
+		
 			// --- sampling --- //
-			for(int s = 0; s < Parameters.NUM_SAMPLES_ARRAY.length; s++) { 
-				int numSamples = Parameters.NUM_SAMPLES_ARRAY[s];		
-				ArrayList<TumorSample> samples = new ArrayList<TumorSample>();
-				HashSet<CellPopulation> subclones = new HashSet<CellPopulation>();
-				HashMap<Mutation.SNV, double[]> multiSampleFrequencies = new HashMap<Mutation.SNV, double[]>();
-				
+			// with nested sample sets, the samples are collected once for the largest sample count
+			// and the samples of each sample count are a prefix of them
+			ArrayList<S> nestedSamples = null;
+			NestedVAFs nestedVAFs = null;
+			// the SNV counts of the tree are the counts of the largest sample set
+			int maxNumSamples = getMaxNumSamples(params);
+			boolean countedSNVs = false;
+			for(int s = 0; s < params.NUM_SAMPLES_ARRAY.length; s++) { 
+				int numSamples = params.NUM_SAMPLES_ARRAY[s];		
+				ArrayList<S> samples = new ArrayList<S>();
+
 				// --- collect the samples from the tree ---
-				if(Parameters.LOCALIZED_SAMPLING) {
-					samples = lineageTree.getKLocalizedSamples(numSamples - 1);
-				} else { // randomized
-					for(int i = 1; i < numSamples; i++) {
-						samples.add(lineageTree.getSample());
+				metrics.enter(RunMetrics.Phase.SAMPLE);
+				int numCollectedSamples = params.NESTED_SAMPLES ? maxNumSamples : numSamples;
+				if(nestedSamples == null) {
+					if(params.LOCALIZED_SAMPLING) {
+						samples = lineageTree.getKLocalizedSamples(numCollectedSamples - 1);
+						if(samples.isEmpty() && numCollectedSamples > 1) {
+							// the other trees of the run are still sampled
+							logger.warning("Tree " + t + " has no populations with cells to sample, no samples are collected from it");
+							break;
+						}
+					} else { // randomized
+						for(int i = 1; i < numCollectedSamples; i++) {
+							samples.add(lineageTree.getSample());
+						}
+					}
+					for(S sample : samples) {
+						metrics.add(RunMetrics.Count.SAMPLED_CELLS, sample.getNumCells());
 					}
 				}
-				if(args.generateSampledDOT) {
-					writeOutputFile(treeDir.getAbsolutePath() + "/TREE_s" + numSamples + ".dot", lineageTree.toColoredDOT(samples));
-				}
-				lineageTree.resetColors();
-				
-				// --- populate the SNV VAFs for each sample ---
-				for(int i = 1; i < numSamples; i++) { // + default normal sample 0
-					TumorSample sample = samples.get(i-1);
-					HashMap<Mutation.SNV, Double> freqMap = sample.getSNVFrequencies();
-					for(Mutation.SNV snv : freqMap.keySet()) {
-						if(multiSampleFrequencies.containsKey(snv)) {
-							multiSampleFrequencies.get(snv)[i] = freqMap.get(snv);
-						} else {
-							multiSampleFrequencies.put(snv, new double[numSamples]);
-							multiSampleFrequencies.get(snv)[i] = freqMap.get(snv);
-						}
+				if(params.NESTED_SAMPLES) {
+					if(nestedSamples == null) {
+						nestedSamples = samples;
+						metrics.enter(RunMetrics.Phase.VAF);
+						VAFMatrix frequencies = lineageTree.getSNVFrequencies(nestedSamples);
+						metrics.enter(RunMetrics.Phase.NOISE);
+						nestedVAFs = new NestedVAFs(frequencies, getNoisyFrequencies(frequencies, params, noiseSampler, downsampler));
+						metrics.enter(RunMetrics.Phase.SAMPLE);
 					}
-					subclones.addAll(sample.cellPopulationCounts.keySet());
+					samples = new ArrayList<S>(nestedSamples.subList(0, numSamples - 1));
 				}
-				HashMap<Mutation.SNV, String> binaryProfiles = null;
-				if(args.outputSampleProfile) {
-					binaryProfiles = getBinaryProfile(multiSampleFrequencies, numSamples);
+				metrics.enter(RunMetrics.Phase.OUTPUT);
+				if(args.generateSampledDOT) {
+					writeDOTToFile(output, "TREE_s" + numSamples + ".dot", lineageTree, samples);
 				}
-				// --- store true VAFs --- 
-				String VAFFileName =  treeDir.getAbsolutePath() + "/VAF_s" + numSamples + "_true.txt";
-				writeVAFsToFile(VAFFileName, multiSampleFrequencies, binaryProfiles, numSamples);
-				
-				// --- generate VAFs with simulated coverage and sequencing error ---
-				for(int c = 0; c < Parameters.COVERAGE_ARRAY.length; c++) {
-					int coverage = Parameters.COVERAGE_ARRAY[c];
-					VAFFileName =  treeDir.getAbsolutePath() + "/VAF_s" + numSamples + "_" + coverage + "X.txt";
-					HashMap<Mutation.SNV, double[]> noisyMultiSampleFrequencies = addNoise(multiSampleFrequencies, coverage, numSamples);
-					writeVAFsToFile(VAFFileName, noisyMultiSampleFrequencies, binaryProfiles, numSamples);
+			
+				// --- populate the SNV VAFs for each sample --- (+ default normal sample 0)
+				VAFMatrix multiSampleFrequencies;
+				ArrayList<VAFMatrix> noisyFrequencies;
+				metrics.enter(RunMetrics.Phase.VAF);
+				if(nestedVAFs != null) {
+					multiSampleFrequencies = nestedVAFs.getFrequencies(numSamples);
+					noisyFrequencies = nestedVAFs.getNoisyFrequencies(numSamples);
+				} else {
+					multiSampleFrequencies = lineageTree.getSNVFrequencies(samples);
+					metrics.enter(RunMetrics.Phase.NOISE);
+					noisyFrequencies = getNoisyFrequencies(multiSampleFrequencies, params, noiseSampler, downsampler);
+				}
+				if(numSamples == maxNumSamples && !countedSNVs) {
+					metrics.add(RunMetrics.Count.SNVS, multiSampleFrequencies.getNumRows());
+					for(S sample : samples) {
+						metrics.add(RunMetrics.Count.CNV_AFFECTED_SNVS, sample.getNumCNVAffectedSNVs());
+					}
+					countedSNVs = true;
 				}
+				metrics.enter(RunMetrics.Phase.OUTPUT);
+				writeVAFs(output, numSamples, multiSampleFrequencies, noisyFrequencies, args, params);
 				// --- store subclone information for evaluation ---
-				String lineageFileName =  treeDir.getAbsolutePath() + "/SUBCLONES_s" + numSamples + ".txt";
-				writeSubclonesToFile(lineageFileName, subclones);
+				writeSubclonesToFile(output, "SUBCLONES_s" + numSamples + ".txt", lineageTree, samples);
 			}
-			if((t+1) % 1 == 0) logger.info("[PROGRESS] Simulated " + (t+1) + " trees.");
+			return lineageTree.getNumNodes();
+		} finally {
+			metrics.stop();
+		}
+	}
+	
+	/**
+	 * Returns the largest number of samples of the sample counts
+	 */
+	private static int getMaxNumSamples(Parameters params) {
+		int maxNumSamples = 1;
+		for(int numSamples : params.NUM_SAMPLES_ARRAY) {
+			maxNumSamples = Math.max(maxNumSamples, numSamples);
+		}
+		return maxNumSamples;
+	}
+	
+	/**
+	 * Returns the VAFs with simulated coverage and sequencing error, in the order of the coverages
+	 */
+	private static ArrayList<VAFMatrix> getNoisyFrequencies(VAFMatrix multiSampleFrequencies, Parameters params, 
+			BinomialSampler noiseSampler, HypergeometricSampler downsampler) {
+		if(downsampler != null) {
+			return addNestedNoise(multiSampleFrequencies, params.COVERAGE_ARRAY, params, noiseSampler, downsampler);
+		}
+		ArrayList<VAFMatrix> noisyFrequencies = new ArrayList<VAFMatrix>();
+		for(int c = 0; c < params.COVERAGE_ARRAY.length; c++) {
+			noisyFrequencies.add(addNoise(multiSampleFrequencies, params.COVERAGE_ARRAY[c], params, noiseSampler));
+		}
+		return noisyFrequencies;
+	}
+	
+	/**
+	 * Writes the true VAFs and the VAFs with simulated coverage and sequencing error
+	 * (the noisy VAF matrices have the rows of the true VAF matrix)
+	 */
+	private static void writeVAFs(TreeOutput output, int numSamples, VAFMatrix multiSampleFrequencies, 
+			ArrayList<VAFMatrix> noisyFrequencies, Args args, Parameters params) throws IOException {
+		if(args.sortedVAF) {
+			int[] order = getPositionOrder(multiSampleFrequencies);
+			multiSampleFrequencies = multiSampleFrequencies.select(order, numSamples);
+			ArrayList<VAFMatrix> sortedFrequencies = new ArrayList<VAFMatrix>();
+			for(VAFMatrix vafs : noisyFrequencies) {
+				sortedFrequencies.add(vafs.select(order, numSamples));
+			}
+			noisyFrequencies = sortedFrequencies;
+		}
+		if(args.binaryVAF) {
+			OutputStream out = output.open("VAF_s" + numSamples + ".bin");
+			VAFContainer.write(out, multiSampleFrequencies, noisyFrequencies, params.COVERAGE_ARRAY);
+			out.close();
+			if(args.outputReadCounts) {
+				writeReadCounts(output, numSamples, noisyFrequencies, null, args, params);
+			}
+			return;
+		}
+		long[] binaryProfiles = null;
+		if(args.outputSampleProfile) {
+			binaryProfiles = multiSampleFrequencies.getProfiles();
+		}
+		// --- store true VAFs --- 
+		String VAFFileName = "VAF_s" + numSamples + "_true.txt";
+		writeVAFsToFile(output, VAFFileName, multiSampleFrequencies, binaryProfiles, args.sortedVAF);
+		
+		// --- store VAFs with simulated coverage and sequencing error ---
+		for(int c = 0; c < params.COVERAGE_ARRAY.length; c++) {
+			VAFFileName = "VAF_s" + numSamples + "_" + params.COVERAGE_ARRAY[c] + "X.txt";
+			writeVAFsToFile(output, VAFFileName, noisyFrequencies.get(c), binaryProfiles, args.sortedVAF);
+		}
+		if(args.outputReadCounts) {
+			writeReadCounts(output, numSamples, noisyFrequencies, binaryProfiles, args, params);
+		}
+	}
+	
+	/**
+	 * Writes the simulated read counts at each coverage
+	 */
+	private static void writeReadCounts(TreeOutput output, int numSamples, ArrayList<VAFMatrix> noisyFrequencies, 
+			long[] binaryProfiles, Args args, Parameters params) throws IOException {
+		for(int c = 0; c < params.COVERAGE_ARRAY.length; c++) {
+			String fileName = "READS_s" + numSamples + "_" + params.COVERAGE_ARRAY[c] + "X.txt";
+			writeReadCountsToFile(output, fileName, noisyFrequencies.get(c), params.COVERAGE_ARRAY[c], binaryProfiles, args.sortedVAF);
+		}
+	}
+	
+	/**
+	 * Returns the rows of the VAF matrix ordered by SNV chromosome and position
+	 * (SNVs at the same position are kept in row order)
+	 */
+	public static int[] getPositionOrder(VAFMatrix vafs) {
+		// sort keys packing the chromosome (5 bits), position (28 bits), and row index (30 bits)
+		long[] keys = new long[vafs.getNumRows()];
+		for(int i = 0; i < keys.length; i++) {
+			Mutation.SNV snv = vafs.getSNV(i);
+			keys[i] = ((long) snv.chr << 58) | ((long) snv.position << 30) | i;
 		}
-		logger.info("[SUMMARY] Simulated " + Parameters.NUM_TREES + " trees. Average number of nodes / tree = " + (double) totalNumNodes/(Parameters.NUM_TREES));
+		Arrays.sort(keys);
+		int[] order = new int[keys.length];
+		for(int i = 0; i < keys.length; i++) {
+			order[i] = (int) (keys[i] & ((1 << 30) - 1));
+		}
+		return order;
 	}
 	
 	/**
 	 * Sample from a binomial with mean = true freq(f) and variance f(1-f)/coverage + sequencing noise 
 	 */
-	public static HashMap<Mutation.SNV, double[]> addNoise(HashMap<Mutation.SNV, double[]> multiSampleFrequencies, int coverage, int numSamples) {
-		HashMap<Mutation.SNV, double[]> noisyMultiSampleFrequencies = new HashMap<Mutation.SNV, double[]>();
-		for(Mutation.SNV snv : multiSampleFrequencies.keySet()) {
-			noisyMultiSampleFrequencies.put(snv, new double[numSamples]);
+	public static VAFMatrix addNoise(VAFMatrix multiSampleFrequencies, int coverage, Parameters params, BinomialSampler binomial) {
+		VAFMatrix noisyMultiSampleFrequencies = multiSampleFrequencies.emptyCopy();
+		int numSamples = multiSampleFrequencies.getNumSamples();
+		for(int row = 0; row < multiSampleFrequencies.getNumRows(); row++) {
 			for(int i = 1; i < numSamples; i++) {
-				int nReadsSNV = 0;
-				if(multiSampleFrequencies.get(snv)[i] > 0) {
-					BinomialGenerator b1 = new BinomialGenerator(coverage, multiSampleFrequencies.get(snv)[i], new Random());
-					nReadsSNV = b1.nextValue();
-				}
-				int nReadsRef = coverage - nReadsSNV;
-				// add sequencing noise
-				int nSNV = 0;
-				if(nReadsSNV > 0) {
-					BinomialGenerator snvR = new BinomialGenerator(nReadsSNV, 1 - Parameters.SEQUENCING_ERROR, new Random());
-					nSNV +=  snvR.nextValue();
-				}
-				BinomialGenerator flipR = new BinomialGenerator(nReadsRef, ((double) 1/3)*Parameters.SEQUENCING_ERROR, new Random());
-				nSNV += flipR.nextValue();
-				noisyMultiSampleFrequencies.get(snv)[i] = (double) nSNV/coverage;
+				int nSNV = sampleSNVReads(multiSampleFrequencies.get(row, i), coverage, params, binomial);
+				noisyMultiSampleFrequencies.set(row, i, (double) nSNV/coverage);
 			}
 		}
 		return noisyMultiSampleFrequencies;
 	}
 	
-	public static HashMap<Mutation.SNV, String> getBinaryProfile(HashMap<Mutation.SNV, double[]> multiSampleFrequencies, int numSamples) {
-		HashMap<Mutation.SNV, String> snvProfiles = new HashMap<Mutation.SNV, String>();
-		for(Mutation.SNV snv : multiSampleFrequencies.keySet()) {
-			String profile = "";
-			for(int i = 0; i < numSamples; i++) {
-				if(multiSampleFrequencies.get(snv)[i] == 0) {
-					profile += "0";
-				} else {
-					profile += "1";
+	/**
+	 * Nested coverage: the reads are simulated once at the highest coverage (as in addNoise)
+	 * and each lower coverage is obtained by hypergeometric downsampling of the reads of the next higher coverage,
+	 * so the reads at each coverage are a subset of the reads at every higher coverage
+	 * (the VAFs at each coverage have the same distribution as with addNoise)
+	 * @return the VAFs at each coverage, in the order of the coverages
+	 */
+	public static ArrayList<VAFMatrix> addNestedNoise(VAFMatrix multiSampleFrequencies, int[] coverages, Parameters params, 
+			BinomialSampler binomial, HypergeometricSampler hypergeometric) {
+		// coverage indices from the highest to the lowest coverage
+		int[] order = new int[coverages.length];
+		for(int c = 0; c < coverages.length; c++) {
+			int j = c;
+			while(j > 0 && coverages[order[j-1]] < coverages[c]) {
+				order[j] = order[j-1];
+				j--;
+			}
+			order[j] = c;
+		}
+		ArrayList<VAFMatrix> noisyFrequencies = new ArrayList<VAFMatrix>();
+		for(int c = 0; c < coverages.length; c++) {
+			noisyFrequencies.add(multiSampleFrequencies.emptyCopy());
+		}
+		if(coverages.length == 0) {
+			return noisyFrequencies;
+		}
+		int numSamples = multiSampleFrequencies.getNumSamples();
+		for(int row = 0; row < multiSampleFrequencies.getNumRows(); row++) {
+			for(int i = 1; i < numSamples; i++) {
+				int depth = coverages[order[0]];
+				int nSNV = sampleSNVReads(multiSampleFrequencies.get(row, i), depth, params, binomial);
+				for(int c : order) {
+					nSNV = hypergeometric.sample(depth, nSNV, coverages[c]);
+					depth = coverages[c];
+					noisyFrequencies.get(c).set(row, i, (double) nSNV/depth);
 				}
 			}
-			snvProfiles.put(snv, profile);
 		}
-		return snvProfiles;
+		return noisyFrequencies;
+	}
+	
+	/**
+	 * Returns the number of reads supporting an SNV with the given true frequency
+	 * at the given coverage, with sequencing errors
+	 */
+	private static int sampleSNVReads(double freq, int coverage, Parameters params, BinomialSampler binomial) {
+		int nReadsSNV = 0;
+		if(freq > 0) {
+			nReadsSNV = binomial.sample(coverage, freq);
+		}
+		int nReadsRef = coverage - nReadsSNV;
+		// add sequencing noise
+		int nSNV = 0;
+		if(nReadsSNV > 0) {
+			nSNV += binomial.sample(nReadsSNV, 1 - params.SEQUENCING_ERROR);
+		}
+		nSNV += binomial.sample(nReadsRef, ((double) 1/3)*params.SEQUENCING_ERROR);
+		return nSNV;
+	}
+	
+	public static void writeVAFsToFile(TreeOutput output, String fileName, VAFMatrix snvToVAFs, long[] binaryProfiles) throws IOException {
+		writeVAFsToFile(output, fileName, snvToVAFs, binaryProfiles, false);
 	}
 	
-	public static void writeVAFsToFile(String fileName, HashMap<Mutation.SNV, double[]> snvToVAFs, HashMap<Mutation.SNV, String> binaryProfiles, int numSamples) {
-		String vafs = "";
-		vafs += "#chrom\tpos\tdesc";
+	/**
+	 * Writes the VAF file in the row order of the matrix;
+	 * if indexed, the rows must be ordered by position and the block index is written to fileName.idx
+	 * @param binaryProfiles sample profiles of the rows (VAFMatrix.getProfiles), or null
+	 */
+	public static void writeVAFsToFile(TreeOutput output, String fileName, VAFMatrix snvToVAFs, long[] binaryProfiles, boolean indexed) throws IOException {
+		int numSamples = snvToVAFs.getNumSamples();
+		VAFIndex index = indexed ? new VAFIndex() : null;
+		RowWriter out = new RowWriter(output.openWriter(fileName));
+		StringBuilder row = out.row();
+		row.append("#chrom\tpos\tdesc");
 		if(binaryProfiles != null) {
-			vafs += "\tprofile";
+			row.append("\tprofile");
 		}
-		vafs += "\tnormal";
+		row.append("\tnormal");
 		for(int i = 1; i < numSamples; i++) {
-			vafs += "\tsample" + i;
+			row.append("\tsample").append(i);
 		}
-		vafs += "\n";
-		DecimalFormat df = new DecimalFormat("#.####");
-		for(Mutation.SNV snv : snvToVAFs.keySet()) {
-			String v = (snv.chr + 1) + "\t" + snv.position + "\t" + snv.name;
+		out.writeRow();
+		FixedDecimalFormat df = new FixedDecimalFormat(4);
+		for(int r = 0; r < snvToVAFs.getNumRows(); r++) {
+			Mutation.SNV snv = snvToVAFs.getSNV(r);
+			if(index != null) {
+				index.add(snv.chr + 1, snv.position, out.getOffset());
+			}
+			row = out.row();
+			row.append(snv.chr + 1).append('\t').append(snv.position).append('\t');
+			snv.appendName(row);
 			if(binaryProfiles != null) {
-				v += "\t" + binaryProfiles.get(snv);
+				row.append('\t');
+				snvToVAFs.appendProfile(row, binaryProfiles, r);
 			}
 			for(int i = 0; i < numSamples; i++) {
-				v += "\t" + df.format(snvToVAFs.get(snv)[i]);
+				row.append('\t');
+				df.format(snvToVAFs.get(r, i), row);
 			}
-			v += "\n";
-			vafs += v;
+			out.writeRow();
+		}
+		out.close();
+		if(index != null) {
+			index.write(output.openWriter(fileName + VAFIndex.SUFFIX));
 		}
-		writeOutputFile(fileName, vafs);
 	}
 	
-	public static void writeSubclonesToFile(String fileName, HashSet<CellPopulation> subclones) {
-		String s = "";
-		for(CellPopulation c : subclones) {
-			boolean hasSNVs = false;
-			for(Mutation m : c.getMutations()) {
-				if(m instanceof Mutation.CNV) continue;
-				s += "\t" + m.name;
-				hasSNVs = true;
+	/**
+	 * Writes the reference and variant read counts of each SNV in each tumor sample at the given coverage
+	 * (the simulated VAFs are the variant read counts divided by the coverage);
+	 * the normal sample is not sequenced, so it has no read count columns;
+	 * if indexed, the rows must be ordered by position and the block index is written to fileName.idx
+	 */
+	public static void writeReadCountsToFile(TreeOutput output, String fileName, VAFMatrix snvToVAFs, int coverage, 
+			long[] binaryProfiles, boolean indexed) throws IOException {
+		int numSamples = snvToVAFs.getNumSamples();
+		VAFIndex index = indexed ? new VAFIndex() : null;
+		RowWriter out = new RowWriter(output.openWriter(fileName));
+		StringBuilder row = out.row();
+		row.append("#chrom\tpos\tdesc");
+		if(binaryProfiles != null) {
+			row.append("\tprofile");
+		}
+		for(int i = 1; i < numSamples; i++) {
+			row.append("\tsample").append(i).append("_ref\tsample").append(i).append("_alt");
+		}
+		out.writeRow();
+		for(int r = 0; r < snvToVAFs.getNumRows(); r++) {
+			Mutation.SNV snv = snvToVAFs.getSNV(r);
+			if(index != null) {
+				index.add(snv.chr + 1, snv.position, out.getOffset());
 			}
-			if(hasSNVs) {
-				s += "\n";
+			row = out.row();
+			row.append(snv.chr + 1).append('\t').append(snv.position).append('\t');
+			snv.appendName(row);
+			if(binaryProfiles != null) {
+				row.append('\t');
+				snvToVAFs.appendProfile(row, binaryProfiles, r);
+			}
+			for(int i = 1; i < numSamples; i++) {
+				// exact, the VAF is an integer count divided by the coverage
+				int altReads = (int) Math.round(snvToVAFs.get(r, i)*coverage);
+				row.append('\t').append(coverage - altReads).append('\t').append(altReads);
 			}
+			out.writeRow();
+		}
+		out.close();
+		if(index != null) {
+			index.write(output.openWriter(fileName + VAFIndex.SUFFIX));
 		}
-		writeOutputFile(fileName, s);
 	}
 	
-	public static void writeOutputFile(String fileName, String data) {
-		try {
-			FileWriter fw = new FileWriter(fileName);
-			fw.write(data);
-			fw.close();
-		} catch (IOException e) {
-			e.printStackTrace();
-			System.err.println("Failed to write to the file: " + fileName);
-			System.exit(-1);
-		}
+	/**
+	 * Writes the SNVs of each distinct subclone of the given samples
+	 */
+	public static <S extends LineageTree.Sample> void writeSubclonesToFile(TreeOutput output, String fileName, LineageTree<S> tree, ArrayList<S> samples) throws IOException {
+		RowWriter out = new RowWriter(output.openWriter(fileName));
+		tree.writeSubclones(out, samples);
+		out.close();
 	}
 	
+	public static void writeTreeToFile(TreeOutput output, String fileName, LineageTree<?> tree) throws IOException {
+		Writer out = output.openWriter(fileName);
+		tree.writeTree(out);
+		out.close();
+	}
+	
+	/**
+	 * Writes the tree in DOT format; if samples are provided,
+	 * the populations included in each sample are indicated
+	 */
+	public static <S extends LineageTree.Sample> void writeDOTToFile(TreeOutput output, String fileName, LineageTree<S> tree, ArrayList<S> samples) throws IOException {
+		Writer out = output.openWriter(fileName);
+		if(samples != null) {
+			tree.writeColoredDOT(out, samples);
+		} else {
+			tree.writeDOT(out);
+		}
+		out.close();
+	}
 	
+	private static final int DEFAULT_COMPRESSION_LEVEL = 6;
 	private static final String PROG_NAME = "pomegranate";
 	private static final String SIMULATION_DATA_DIR = "simulation_results";
+	private static final String METRICS_FILE = "metrics";
 
 	// ---- LAUNCH ----
 	public static void main(String[] args) {
@@ -260,6 +761,7 @@ public class LineageSimulator {
 		options.addOption("maxPopulationSize", true, "Max size of a cell population (default: 1000000)");
 		options.addOption("minNodes", true, "Minimum number of undead cell population nodes in a valid tree, tree growth will continue beyond the defined number of iterations until this value is reached (default: 10)");
 		options.addOption("maxNodes", true, "Maximum number of undead cell population nodes in a tree, tree growth will stop after the iteration in which this value is reached/first surpassed (default: 1000)");
+		options.addOption("eventGrowth", false, "Event-driven tree growth: the iteration of the next death or division of each population is sampled directly, so iterations without events cost nothing; the events have the same distribution as with the default per-iteration rolls (recommended for thousands of iterations)");
 		
 		// sampling
 		Option samplesOption = new Option("s", "nSamples", true, "Number of samples to collect, accepts multiple values, e.g. 5 10 15 (default: 5)");
@@ -273,16 +775,32 @@ public class LineageSimulator {
 		options.addOption("e", true, "Sequencing error (default: 0.001)");
 		options.addOption("minNC", true, "Minimum percentage of normal contamination per sample; the percentage will be randomly generated from the range [minNC maxNC] for each sample (default: 0)");
 		options.addOption("maxNC", true, "Maximum percentage of normal contamination per sample; if maxNC < minNC, maxNC will be automatically set to minNC; the percentage will be randomly generated from the range [minNC maxNC] for each sample (default: 20)");
-		//options.addOption("localized", false, "Enable localized sampling (default: random sampling)");
-		//options.addOption("mixSubclone", false, "With localized sampling, add an additional subclone from a different subtree to each sample; by default, the sample is localized to a single disjoint subtree");
+		options.addOption("nestedCoverage", false, "Simulate the reads once at the highest coverage and obtain each lower coverage by downsampling the reads of the next higher coverage, so the lower-coverage reads are subsets of the higher-coverage reads (default: the reads are simulated independently for each coverage)");
+		options.addOption("nestedSamples", false, "With multiple sample counts, collect the samples once for the largest count and use a prefix of them for each smaller count, so the sample sets are nested and the VAFs of each sample are computed once (default: new samples are collected for each count)");
+		options.addOption("localized", false, "Enable localized sampling (default: random sampling)");
+		options.addOption("noMixSubclone", false, "With localized sampling, localize each sample to a single disjoint subtree; by default, an additional subclone from a different subtree is added to each sample");
 		
 		// input/output/display
 		options.addOption("dir", "outputDir", true, "Directory where the output files should be created [required]");
 		options.addOption("dot", false, "Produce DOT files for the simulated trees");
 		options.addOption("sdot", "sampledDot", false, "Produce DOT files for the simulated trees with indicated samples");		
 		options.addOption("sampleProfile", false, "Output VAF file includes an additional column with the binary sample profile for each SNV");		
+		options.addOption("readCounts", false, "Output the simulated reference and variant read counts of each SNV per tumor sample at each coverage (READS_s<n>_<coverage>X.txt), in addition to the VAF files");
+		options.addOption("sortedVAF", false, "Write the VAF and read count rows sorted by chromosome and position, each file with a block index (<file>.idx) for region queries: java -cp pomegranate.jar VAFIndex <file> <chrom>:<start>-<end> (not compatible with -gzip)");
+		options.addOption("binaryVAF", false, "Output the VAFs of each sample set as a single binary columnar container (VAF_s<n>.bin, true VAFs and every coverage) instead of the VAF text files");
+		options.addOption("archive", false, "Append the output files of all the trees to a few large segment files with an index (archive.idx) instead of creating a directory per tree; the tree directories can be extracted with: java -cp pomegranate.jar RunArchive <outputDir>/" + SIMULATION_DATA_DIR + " [extractDir] [treeId ...]");
+		Option gzipOption = new Option("gzip", true, "Compress the output files with gzip (<file>.gz) in a dedicated thread (or in the background writer threads, if any); optional compression level 0-9 (default: 6)");
+		gzipOption.setOptionalArg(true);
+		options.addOption(gzipOption);
 		
 		// other
+		options.addOption("seed", true, "Seed of the random number generator; runs with the same seed and parameters produce identical results (default: random)");
+		options.addOption("threads", true, "Number of trees to simulate in parallel (default: 1)");
+		options.addOption("writers", true, "Number of background threads writing the output files; the output of each simulated tree is buffered in memory and handed over to the writers through a bounded queue of " + 
+				"completed trees, for trees whose output fits in memory (0: the output files are streamed directly by the simulation threads) (default: 0)");
+		options.addOption("compactTree", false, "Store the trees in compact primitive arrays, for trees with millions of nodes");
+		options.addOption("metrics", false, "Write the wall time and allocated bytes of each simulation phase and the size counts of each tree (" + METRICS_FILE + ".csv) " + 
+				"and their percentiles over the trees (" + METRICS_FILE + ".json) to the output directory");
 		options.addOption("v", "verbose", false, "Verbose mode");
 		options.addOption("h", "help", false, "Print usage");
 			
@@ -297,16 +815,31 @@ public class LineageSimulator {
 		optionsList.add(options.getOption("maxPopulationSize"));
 		optionsList.add(options.getOption("minNodes"));
 		optionsList.add(options.getOption("maxNodes"));
+		optionsList.add(options.getOption("eventGrowth"));
 		optionsList.add(options.getOption("s"));
 		optionsList.add(options.getOption("c"));
 		optionsList.add(options.getOption("maxSubclones"));
 		optionsList.add(options.getOption("sampleSize"));
 		optionsList.add(options.getOption("e"));
+		optionsList.add(options.getOption("nestedCoverage"));
+		optionsList.add(options.getOption("nestedSamples"));
 		optionsList.add(options.getOption("minNC"));
 		optionsList.add(options.getOption("maxNC"));
+		optionsList.add(options.getOption("localized"));
+		optionsList.add(options.getOption("noMixSubclone"));
 		optionsList.add(options.getOption("dot"));
 		optionsList.add(options.getOption("sdot"));
 		optionsList.add(options.getOption("sampleProfile"));
+		optionsList.add(options.getOption("readCounts"));
+		optionsList.add(options.getOption("sortedVAF"));
+		optionsList.add(options.getOption("binaryVAF"));
+		optionsList.add(options.getOption("archive"));
+		optionsList.add(options.getOption("gzip"));
+		optionsList.add(options.getOption("seed"));
+		optionsList.add(options.getOption("threads"));
+		optionsList.add(options.getOption("writers"));
+		optionsList.add(options.getOption("compactTree"));
+		optionsList.add(options.getOption("metrics"));
 		optionsList.add(options.getOption("v"));
 		optionsList.add(options.getOption("h"));
 			
@@ -323,6 +856,7 @@ public class LineageSimulator {
 			System.exit(-1);
 		}
 		Args params = new Args();	
+		Parameters parameters = new Parameters();
 		if(cmdLine.hasOption("dir")) {
 			params.simPath = cmdLine.getOptionValue("dir") + "/" + SIMULATION_DATA_DIR;
 		} else {
@@ -331,76 +865,85 @@ public class LineageSimulator {
 			System.exit(-1);
 		}
 		if(cmdLine.hasOption("t")) {
-			Parameters.NUM_TREES = Integer.parseInt(cmdLine.getOptionValue("t"));
+			parameters.NUM_TREES = Integer.parseInt(cmdLine.getOptionValue("t"));
 		}
 		if(cmdLine.hasOption("i")) {
-			Parameters.NUM_ITERATIONS = Integer.parseInt(cmdLine.getOptionValue("i"));
+			parameters.NUM_ITERATIONS = Integer.parseInt(cmdLine.getOptionValue("i"));
 		}
 		if(cmdLine.hasOption("snv")) {
-			Parameters.PROB_SNV = Double.parseDouble(cmdLine.getOptionValue("snv"));
+			parameters.PROB_SNV = Double.parseDouble(cmdLine.getOptionValue("snv"));
 		}
 		if(cmdLine.hasOption("cnv")) {
-			Parameters.PROB_CNV = Double.parseDouble(cmdLine.getOptionValue("cnv"));
+			parameters.PROB_CNV = Double.parseDouble(cmdLine.getOptionValue("cnv"));
 		}
 		if(cmdLine.hasOption("probDeath")) {
-			Parameters.PROB_DEATH = Double.parseDouble(cmdLine.getOptionValue("probDeath"));
+			parameters.PROB_DEATH = Double.parseDouble(cmdLine.getOptionValue("probDeath"));
 		}
 		if(cmdLine.hasOption("maxPopulationSize")) {
-			Parameters.MAX_POPULATION_SIZE = Integer.parseInt(cmdLine.getOptionValue("maxPopulationSize"));
+			parameters.MAX_POPULATION_SIZE = Integer.parseInt(cmdLine.getOptionValue("maxPopulationSize"));
 		}
 		if(cmdLine.hasOption("minNodes")) {
-			Parameters.MIN_NUM_NODES = Integer.parseInt(cmdLine.getOptionValue("minNodes"));
-			if (Parameters.MIN_NUM_NODES < 1) {
+			parameters.MIN_NUM_NODES = Integer.parseInt(cmdLine.getOptionValue("minNodes"));
+			if (parameters.MIN_NUM_NODES < 1) {
 				System.err.println("Minimum number of nodes [-minNodes] must be at least 1");
 				System.exit(-1);
 			}
 		}
 		if(cmdLine.hasOption("maxNodes")) {
-			Parameters.MAX_NUM_NODES = Integer.parseInt(cmdLine.getOptionValue("maxNodes"));
-			if (Parameters.MAX_NUM_NODES < 1 || Parameters.MAX_NUM_NODES < Parameters.MIN_NUM_NODES) {
+			parameters.MAX_NUM_NODES = Integer.parseInt(cmdLine.getOptionValue("maxNodes"));
+			if (parameters.MAX_NUM_NODES < 1 || parameters.MAX_NUM_NODES < parameters.MIN_NUM_NODES) {
 				System.err.println("Maximum number of nodes [-maxNodes] must be at least 1 and not less than [-minNodes]");
 				System.exit(-1);
 			}
 		}
+		if(cmdLine.hasOption("eventGrowth")) {
+			parameters.EVENT_DRIVEN_GROWTH = true;
+		}
 		if(cmdLine.hasOption("s")) {
 			String[] samples = cmdLine.getOptionValues("s");
-			Parameters.NUM_SAMPLES_ARRAY = new int[samples.length];
+			parameters.NUM_SAMPLES_ARRAY = new int[samples.length];
 			for(int i = 0; i < samples.length; i++) {
-				Parameters.NUM_SAMPLES_ARRAY[i] = Integer.parseInt(samples[i]);
+				parameters.NUM_SAMPLES_ARRAY[i] = Integer.parseInt(samples[i]);
 			}
 		}
 		if(cmdLine.hasOption("c")) {
 			String[] cov = cmdLine.getOptionValues("c");
-			Parameters.COVERAGE_ARRAY = new int[cov.length];
+			parameters.COVERAGE_ARRAY = new int[cov.length];
 			for(int i = 0; i < cov.length; i++) {
-				Parameters.COVERAGE_ARRAY[i] = Integer.parseInt(cov[i]);
+				parameters.COVERAGE_ARRAY[i] = Integer.parseInt(cov[i]);
 			}
 		}
 		if(cmdLine.hasOption("maxSubclones")) {
-			Parameters.MAX_NUM_SUBCLONES = Integer.parseInt(cmdLine.getOptionValue("maxSubclones"));
+			parameters.MAX_NUM_SUBCLONES = Integer.parseInt(cmdLine.getOptionValue("maxSubclones"));
 		}
 		if(cmdLine.hasOption("sampleSize")) {
-			Parameters.NUM_CELLS_PER_SAMPLE = Integer.parseInt(cmdLine.getOptionValue("sampleSize"));
+			parameters.NUM_CELLS_PER_SAMPLE = Integer.parseInt(cmdLine.getOptionValue("sampleSize"));
 		}
 		if(cmdLine.hasOption("e")) {
-			Parameters.SEQUENCING_ERROR = Double.parseDouble(cmdLine.getOptionValue("e"));
+			parameters.SEQUENCING_ERROR = Double.parseDouble(cmdLine.getOptionValue("e"));
 		}
 		if(cmdLine.hasOption("minNC")) {
-			Parameters.MIN_PERCENT_NORMAL_CONTAMINATION = Double.parseDouble(cmdLine.getOptionValue("minNC"));
+			parameters.MIN_PERCENT_NORMAL_CONTAMINATION = Double.parseDouble(cmdLine.getOptionValue("minNC"));
 		}
 		if(cmdLine.hasOption("maxNC")) {
-			Parameters.MAX_PERCENT_NORMAL_CONTAMINATION = Double.parseDouble(cmdLine.getOptionValue("maxNC"));
+			parameters.MAX_PERCENT_NORMAL_CONTAMINATION = Double.parseDouble(cmdLine.getOptionValue("maxNC"));
 		}
-		if(Parameters.MAX_PERCENT_NORMAL_CONTAMINATION <  Parameters.MIN_PERCENT_NORMAL_CONTAMINATION) {
-			Parameters.MAX_PERCENT_NORMAL_CONTAMINATION = Parameters.MIN_PERCENT_NORMAL_CONTAMINATION;
+		if(parameters.MAX_PERCENT_NORMAL_CONTAMINATION <  parameters.MIN_PERCENT_NORMAL_CONTAMINATION) {
+			parameters.MAX_PERCENT_NORMAL_CONTAMINATION = parameters.MIN_PERCENT_NORMAL_CONTAMINATION;
 		}
 		
-		/*if(cmdLine.hasOption("localized")) {
-			Parameters.LOCALIZED_SAMPLING = true;
+		if(cmdLine.hasOption("localized")) {
+			parameters.LOCALIZED_SAMPLING = true;
+		}
+		if(cmdLine.hasOption("noMixSubclone")) {
+			parameters.MIX_NBR_SUBTREE_SUBCLONE = false;
+		}
+		if(cmdLine.hasOption("nestedCoverage")) {
+			parameters.NESTED_COVERAGE = true;
+		}
+		if(cmdLine.hasOption("nestedSamples")) {
+			parameters.NESTED_SAMPLES = true;
 		}
-		if(cmdLine.hasOption("mixSubclone")) {
-			Parameters.MIX_NBR_SUBTREE_SUBCLONE = true;
-		}*/
 		
 		if(cmdLine.hasOption("dot")) {
 			params.generateDOT = true;
@@ -411,6 +954,59 @@ public class LineageSimulator {
 		if(cmdLine.hasOption("sampleProfile")) {
 			params.outputSampleProfile = true;
 		}
+		if(cmdLine.hasOption("readCounts")) {
+			params.outputReadCounts = true;
+		}
+		if(cmdLine.hasOption("sortedVAF")) {
+			params.sortedVAF = true;
+		}
+		if(cmdLine.hasOption("binaryVAF")) {
+			params.binaryVAF = true;
+		}
+		if(cmdLine.hasOption("archive")) {
+			params.archive = true;
+		}
+		if(cmdLine.hasOption("gzip")) {
+			params.compressionLevel = DEFAULT_COMPRESSION_LEVEL;
+			if(cmdLine.getOptionValue("gzip") != null) {
+				params.compressionLevel = Integer.parseInt(cmdLine.getOptionValue("gzip"));
+			}
+			if(params.compressionLevel < 0 || params.compressionLevel > 9) {
+				System.err.println("Invalid compression level [-gzip]: " + params.compressionLevel);
+				hf.printHelp(PROG_NAME, options);
+				System.exit(-1);
+			}
+		}
+		if(params.sortedVAF && params.compressionLevel >= 0) {
+			// the block index holds offsets into the uncompressed files, which cannot be seeked in a gzip file
+			System.err.println("The block index of the sorted VAF files [-sortedVAF] cannot be used with compressed output [-gzip]");
+			System.exit(-1);
+		}
+		if(cmdLine.hasOption("seed")) {
+			params.seed = Long.parseLong(cmdLine.getOptionValue("seed"));
+		} else {
+			params.seed = new Random().nextLong();
+		}
+		if(cmdLine.hasOption("threads")) {
+			params.numThreads = Integer.parseInt(cmdLine.getOptionValue("threads"));
+			if(params.numThreads < 1) {
+				System.err.println("Number of threads [-threads] must be at least 1");
+				System.exit(-1);
+			}
+		}
+		if(cmdLine.hasOption("writers")) {
+			params.numWriters = Integer.parseInt(cmdLine.getOptionValue("writers"));
+			if(params.numWriters < 0) {
+				System.err.println("Number of writer threads [-writers] must be at least 0");
+				System.exit(-1);
+			}
+		}
+		if(cmdLine.hasOption("compactTree")) {
+			params.compactTree = true;
+		}
+		if(cmdLine.hasOption("metrics")) {
+			params.metrics = true;
+		}
 		if(cmdLine.hasOption("h")) {
 			new HelpFormatter().printHelp(" ", options);
 		}
@@ -427,12 +1023,65 @@ public class LineageSimulator {
 		logger.setUseParentHandlers(false);
 		
 		// validate settings
-		if(Parameters.PROB_SNV + Parameters.PROB_CNV + Parameters.PROB_DEATH > 1) {
+		if(parameters.PROB_SNV + parameters.PROB_CNV + parameters.PROB_DEATH > 1) {
 			System.err.println("The sum of SSNV, CNV, and cell death probabilities cannot exceed 1");
 			hf.printHelp(PROG_NAME, options);
 			System.exit(-1);
 		}
-		simulateLineageTrees(params);
+		logger.info("[SEED] " + params.seed);
+		simulateLineageTrees(params, parameters);
+	}
+	
+	/**
+	 * VAFs of nested sample sets: the VAFs of a prefix of the samples are sliced from the VAFs
+	 * computed once for all the samples (each sample column is independent of the other samples).
+	 * A slice keeps the SNVs present in the prefix samples, in the order of a direct computation.
+	 */
+	protected static class NestedVAFs {
+		private VAFMatrix frequencies;
+		private ArrayList<VAFMatrix> noisyFrequencies;
+		
+		public NestedVAFs(VAFMatrix multiSampleFrequencies, ArrayList<VAFMatrix> noisyMultiSampleFrequencies) {
+			frequencies = multiSampleFrequencies;
+			noisyFrequencies = noisyMultiSampleFrequencies;
+		}
+		
+		/**
+		 * Returns the true VAFs of the first numSamples samples (including the normal sample 0)
+		 */
+		public VAFMatrix getFrequencies(int numSamples) {
+			return frequencies.select(getRows(numSamples), numSamples);
+		}
+		
+		/**
+		 * Returns the VAFs at each coverage of the first numSamples samples (including the normal sample 0)
+		 */
+		public ArrayList<VAFMatrix> getNoisyFrequencies(int numSamples) {
+			int[] rows = getRows(numSamples);
+			ArrayList<VAFMatrix> slices = new ArrayList<VAFMatrix>();
+			for(VAFMatrix vafs : noisyFrequencies) {
+				slices.add(vafs.select(rows, numSamples));
+			}
+			return slices;
+		}
+		
+		/**
+		 * Returns the rows of the SNVs present in the first numSamples samples
+		 * (the rows are in SNV id order, as in a direct computation)
+		 */
+		private int[] getRows(int numSamples) {
+			int[] rows = new int[frequencies.getNumRows()];
+			int numRows = 0;
+			for(int r = 0; r < rows.length; r++) {
+				for(int k = 1; k < numSamples; k++) {
+					if(frequencies.get(r, k) > 0) {
+						rows[numRows++] = r;
+						break;
+					}
+				}
+			}
+			return Arrays.copyOf(rows, numRows);
+		}
 	}
 	
 	protected static class Args {
@@ -441,9 +1090,66 @@ public class LineageSimulator {
 		boolean generateSampledDOT = false;
 		boolean outputReadCounts = false;
 		boolean outputSampleProfile = false;
+		boolean binaryVAF = false;
+		boolean sortedVAF = false;
+		boolean archive = false;
+		int compressionLevel = -1;
+		int numWriters = 0;
 		boolean verbose = false;
+		int numThreads = 1;
+		long seed;
+		boolean compactTree = false;
+		boolean metrics = false;
 	}
 
+	/**
+	 * Buffered text file writer that assembles each row in a reusable buffer
+	 */
+	protected static class RowWriter {
+		private Writer out;
+		private StringBuilder row = new StringBuilder(256);
+		private char[] chars = new char[256];
+		private long offset = 0;
+		
+		public RowWriter(Writer output) {
+			out = output;
+		}
+		
+		/**
+		 * Returns the cleared row buffer
+		 */
+		public StringBuilder row() {
+			row.setLength(0);
+			return row;
+		}
+		
+		/**
+		 * Writes the contents of the row buffer followed by a newline
+		 */
+		public void writeRow() throws IOException {
+			row.append('\n');
+			int length = row.length();
+			if(chars.length < length) {
+				chars = new char[2*length];
+			}
+			row.getChars(0, length, chars, 0);
+			out.write(chars, 0, length);
+			offset += length;
+		}
+		
+		/**
+		 * Returns the number of characters written so far
+		 * (the byte offset of the next row, the output is ASCII)
+		 */
+		public long getOffset() {
+			return offset;
+		}
+		
+		public void close() throws IOException {
+			out.close();
+		}
+	}
+	
 	protected static class LogFormatter extends Formatter {
 		public String format(LogRecord rec) {
 			return rec.getMessage() + "\r\n";
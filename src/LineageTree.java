@@ -0,0 +1,95 @@
+/*
+ * Program POMEGRANATE for cell lineage tree simulation and sampling
+ * by Victoria Popic (viq@stanford.edu) 2014-2015
+ *
+ * MIT License
+ *
+ * Copyright (c) 2014 Victoria Popic.
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Cell lineage tree that can be grown, sampled, and written by the simulation driver
+ * (implemented by the object tree and the compact tree store)
+ * @param <S> type of the tumor samples collected from the tree
+ */
+public interface LineageTree<S extends LineageTree.Sample> {
+	
+	/**
+	 * Runs one tree growth iteration
+	 */
+	void grow();
+	
+	int getNumNodes();
+	
+	int getNumLiveNodes();
+	
+	/**
+	 * Extract a sample using randomized sampling
+	 */
+	S getSample();
+	
+	/**
+	 * Extract k samples using localized sampling
+	 * (none if no population below the root has cells)
+	 */
+	ArrayList<S> getKLocalizedSamples(int k);
+	
+	/**
+	 * Computes the VAF of every sampled SNV in each of the given samples
+	 * (column 0 corresponds to the normal sample)
+	 */
+	VAFMatrix getSNVFrequencies(ArrayList<S> samples);
+	
+	void writeTree(Appendable out) throws IOException;
+	
+	void writeDOT(Appendable out) throws IOException;
+	
+	/**
+	 * Writes the tree in DOT format, indicating the populations included in each of the given samples
+	 */
+	void writeColoredDOT(Appendable out, ArrayList<S> samples) throws IOException;
+	
+	/**
+	 * Writes the SNVs of each distinct subclone of the given samples, one row per subclone
+	 */
+	void writeSubclones(LineageSimulator.RowWriter out, ArrayList<S> samples) throws IOException;
+	
+	/**
+	 * Tumor sample collected from a lineage tree
+	 */
+	interface Sample {
+		
+		/**
+		 * Returns the number of cells in the sample (including the normal cells)
+		 */
+		long getNumCells();
+		
+		/**
+		 * Returns the number of SNVs whose VAF in the sample is affected by a CNV
+		 * (set by the last VAF computation)
+		 */
+		int getNumCNVAffectedSNVs();
+	}
+}
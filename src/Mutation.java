@@ -36,28 +36,67 @@ public class Mutation {
 													133851895, 115169878, 107349540, 102531392, 
 													90354753, 81195210, 78077248, 63025520,
 													59373566, 59128983, 51304566, 48129895};
-	protected String name; // unique 
-	protected int chr;
-	protected int haplotype;
-	private static int counter = 0;
-	protected Random r = new Random();
+	// compact: the mutations of a tree are identified by their id,
+	// and the names are only formatted for the output
+	protected int id; // unique within the tree
+	protected byte chr;
+	protected byte haplotype;
 	
-	public Mutation() {
-		name = "M" + counter;
-		chr = r.nextInt(NUM_CHROMOSOMES);
-		haplotype = r.nextInt(2);
-		counter++;
+	/**
+	 * Creates a mutation at a random genome location
+	 * using the random stream of the tree it belongs to
+	 */
+	public Mutation(int mutationId, Random r) {
+		id = mutationId;
+		chr = (byte) r.nextInt(NUM_CHROMOSOMES);
+		haplotype = (byte) r.nextInt(2);
+	}
+	
+	/**
+	 * Creates a mutation at the given genome location
+	 */
+	protected Mutation(int mutationId, int chromosome, int mutationHaplotype) {
+		id = mutationId;
+		chr = (byte) chromosome;
+		haplotype = (byte) mutationHaplotype;
+	}
+	
+	/**
+	 * Returns the name of the mutation (unique within the tree), e.g. M12
+	 */
+	public String getName() {
+		return appendName(new StringBuilder()).toString();
+	}
+	
+	/**
+	 * Appends the name of the mutation without creating a string
+	 */
+	public StringBuilder appendName(StringBuilder sb) {
+		return sb.append('M').append(id);
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		if(o != null && (o instanceof Mutation)) {
+			return ((Mutation) o).id == id;
+		}
+		return false;
+	}
+	
+	@Override 
+	public int hashCode() {
+		return ((Integer)id).hashCode();
 	}
 	
 	public static class SNV extends Mutation {
 		protected int position;
-		public SNV() {
-			super();
+		public SNV(int mutationId, Random r) {
+			super(mutationId, r);
 			position = r.nextInt(CHROMOSOME_LENGTHS[chr]);
 		}
 		
-		public SNV(CNV parent) {
-			super();
+		public SNV(int mutationId, CNV parent, Random r) {
+			super(mutationId, r);
 			chr = parent.chr;
 			position = r.nextInt(CHROMOSOME_LENGTHS[chr]/2);
 			if(parent.arm == 1) {
@@ -65,32 +104,40 @@ public class Mutation {
 			}
 		}
 		
+		public SNV(int mutationId, int chromosome, int mutationHaplotype, int snvPosition) {
+			super(mutationId, chromosome, mutationHaplotype);
+			position = snvPosition;
+		}
+		
 		public String toString() {
-			return name + ": chr=" + (chr + 1) + ", pos="  + position + ", haplotype=" + haplotype;
+			return getName() + ": chr=" + (chr + 1) + ", pos="  + position + ", haplotype=" + haplotype;
 		}
 	}
 	
 	public static class CNV extends Mutation {
-		protected int arm;
-		public CNV() {
-			super();
-			arm = r.nextInt(2);
-			name = "CNV_" + name;
+		protected byte arm;
+		public CNV(int mutationId, Random r) {
+			super(mutationId, r);
+			arm = (byte) r.nextInt(2);
 		}
 		
-		public CNV(SNV parent) {
-			super();
+		public CNV(int mutationId, SNV parent, Random r) {
+			super(mutationId, r);
 			chr = parent.chr;
 			if(parent.position <= CHROMOSOME_LENGTHS[chr]/2) {
 				arm = 0;
 			} else {
 				arm = 1;
 			}
-			name = "CNV_" + name;
+		}
+		
+		@Override
+		public StringBuilder appendName(StringBuilder sb) {
+			return super.appendName(sb.append("CNV_"));
 		}
 		
 		public String toString() {
-			return name + ": chr=" + (chr + 1) + ", arm="  + arm + ", haplotype=" + haplotype;
+			return getName() + ": chr=" + (chr + 1) + ", arm="  + arm + ", haplotype=" + haplotype;
 		}
 	}
 }
\ No newline at end of file
@@ -1,24 +1,32 @@
+/**
+ * Simulation parameters of a run
+ * A single instance is configured before the run starts and is then only read
+ * by the tree simulations, so it is safe to share between worker threads
+ */
 public class Parameters {
 	
 	// trees
-	protected static int NUM_TREES = 100;
-	protected static int NUM_ITERATIONS = 50;
-	protected static int MIN_NUM_NODES = 10;
-	protected static int MAX_NUM_NODES = 1000;
-	protected static int MAX_POPULATION_SIZE = 1000000;
-	protected static double PROB_SNV = 0.15;
-	protected static double PROB_CNV = 0.02;
-	protected static double PROB_DEATH = 0.06;
-	protected static boolean UP_CNV_EFFECT = false;
+	protected int NUM_TREES = 100;
+	protected int NUM_ITERATIONS = 50;
+	protected int MIN_NUM_NODES = 10;
+	protected int MAX_NUM_NODES = 1000;
+	protected int MAX_POPULATION_SIZE = 1000000;
+	protected double PROB_SNV = 0.15;
+	protected double PROB_CNV = 0.02;
+	protected double PROB_DEATH = 0.06;
+	protected boolean UP_CNV_EFFECT = false;
+	protected boolean EVENT_DRIVEN_GROWTH = false;
 	
 	// sampling
-	protected static int[] NUM_SAMPLES_ARRAY = {5};
-	protected static int[] COVERAGE_ARRAY = {1000};
-	protected static boolean LOCALIZED_SAMPLING = false;
-	protected static int MAX_NUM_SUBCLONES = 5;
-	protected static int NUM_CELLS_PER_SAMPLE = 100000;
-	protected static double MAX_PERCENT_NORMAL_CONTAMINATION = 20;
-	protected static double MIN_PERCENT_NORMAL_CONTAMINATION = 0;
-	protected static boolean MIX_NBR_SUBTREE_SUBCLONE = true;
-	protected static double SEQUENCING_ERROR = 0.001; // Q30
+	protected int[] NUM_SAMPLES_ARRAY = {5};
+	protected int[] COVERAGE_ARRAY = {1000};
+	protected boolean LOCALIZED_SAMPLING = false;
+	protected boolean NESTED_SAMPLES = false;
+	protected int MAX_NUM_SUBCLONES = 5;
+	protected int NUM_CELLS_PER_SAMPLE = 100000;
+	protected double MAX_PERCENT_NORMAL_CONTAMINATION = 20;
+	protected double MIN_PERCENT_NORMAL_CONTAMINATION = 0;
+	protected boolean MIX_NBR_SUBTREE_SUBCLONE = true;
+	protected double SEQUENCING_ERROR = 0.001; // Q30
+	protected boolean NESTED_COVERAGE = false;
 }
@@ -0,0 +1,117 @@
+/*
+ * Program POMEGRANATE for cell lineage tree simulation and sampling
+ * by Victoria Popic (viq@stanford.edu) 2014-2015
+ *
+ * MIT License
+ *
+ * Copyright (c) 2014 Victoria Popic.
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+
+
+import java.util.Random;
+
+/**
+ * Seeded, splittable pseudo-random number stream (SplitMix64).
+ * A run uses a single root stream which is split per tree and then per simulation stage,
+ * so that every tree is reproducible from the run seed independently of the order
+ * in which the trees are simulated. 
+ * Instances are not thread-safe, each stream should be used by a single thread.
+ */
+public class RandomStream extends Random {
+	private static final long serialVersionUID = 1L;
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+	
+	private long state;
+	private long gamma;
+	
+	public RandomStream(long seed) {
+		this(seed, GOLDEN_GAMMA);
+	}
+	
+	private RandomStream(long seed, long gamma) {
+		super(0);
+		this.state = seed;
+		this.gamma = gamma;
+	}
+	
+	/**
+	 * Returns a new stream that is statistically independent of this one;
+	 * advances the state of this stream
+	 */
+	public RandomStream split() {
+		return new RandomStream(mix64(nextSeed()), mixGamma(nextSeed()));
+	}
+	
+	@Override
+	public void setSeed(long seed) {
+		// called by the Random constructor
+		state = seed;
+	}
+	
+	@Override
+	protected int next(int bits) {
+		return (int) (mix64(nextSeed()) >>> (64 - bits));
+	}
+	
+	@Override
+	public int nextInt() {
+		return (int) mix64(nextSeed());
+	}
+	
+	@Override
+	public long nextLong() {
+		return mix64(nextSeed());
+	}
+	
+	@Override
+	public double nextDouble() {
+		return (mix64(nextSeed()) >>> 11) * 0x1.0p-53;
+	}
+	
+	@Override
+	public float nextFloat() {
+		return (mix64(nextSeed()) >>> 40) * 0x1.0p-24f;
+	}
+	
+	@Override
+	public boolean nextBoolean() {
+		return mix64(nextSeed()) < 0;
+	}
+	
+	private long nextSeed() {
+		return (state += gamma);
+	}
+	
+	private static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+	
+	private static long mixGamma(long z) {
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		z = (z ^ (z >>> 33)) | 1L; // odd
+		int n = Long.bitCount(z ^ (z >>> 1));
+		return (n < 24) ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+	}
+}
@@ -0,0 +1,316 @@
+/*
+ * Program POMEGRANATE for cell lineage tree simulation and sampling
+ * by Victoria Popic (viq@stanford.edu) 2014-2015
+ *
+ * MIT License
+ *
+ * Copyright (c) 2014 Victoria Popic.
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.TreeMap;
+
+/**
+ * Single-file style output of a simulation run: the output files of all the trees
+ * are appended as records to a few large segment files (archive_<k>.seg),
+ * and an index (archive.idx) maps each tree id and file name to its segment, offset, and length.
+ * Records are appended in the order the files are completed, so the trees of a
+ * multi-threaded run may be interleaved; the index is the authoritative directory.
+ * Each index entry is flushed once the data of its record is written to the segment,
+ * so the records indexed before a crash can still be extracted
+ * (a truncated last index entry is ignored by the reader).
+ * The extractor (main) reproduces the classic tree_N directory layout.
+ *
+ * Index format (tab-separated, one record per line):
+ * <pre>
+ * #tree	file	segment	offset	length
+ * </pre>
+ */
+public class RunArchive {
+	public static final String INDEX_FILE = "archive.idx";
+	public static final long DEFAULT_SEGMENT_SIZE = 1L << 32;
+	private static final String SEGMENT_PREFIX = "archive_";
+	private static final String SEGMENT_SUFFIX = ".seg";
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	private File dir;
+	private long maxSegmentSize;
+	private int segmentId = -1;
+	private OutputStream segment;
+	private long segmentSize;
+	private Writer index;
+	
+	/**
+	 * Creates a new archive in the given directory (an existing archive is overwritten)
+	 * @param maxSegmentSize a new segment is started once a record would exceed this size
+	 */
+	public RunArchive(String dirName, long maxSegmentSize) throws IOException {
+		dir = new File(dirName);
+		dir.mkdirs();
+		this.maxSegmentSize = maxSegmentSize;
+		index = new BufferedWriter(new FileWriter(new File(dir, INDEX_FILE)), BUFFER_SIZE);
+		index.write("#tree\tfile\tsegment\toffset\tlength\n");
+		nextSegment();
+	}
+	
+	/**
+	 * Returns the output of the given tree; each file is buffered in memory
+	 * and appended to the archive as a single record when it is closed
+	 */
+	public TreeOutput getTreeOutput(final int treeId) {
+		return new TreeOutput() {
+			public OutputStream open(String fileName) {
+				return new Record(treeId, fileName);
+			}
+			
+			public String getLocation() {
+				return dir.getAbsolutePath() + "/" + SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX + ":tree_" + treeId;
+			}
+		};
+	}
+	
+	/**
+	 * Appends a record to the current segment and adds it to the index
+	 * (the index entry is written after the record data)
+	 */
+	protected synchronized void append(int treeId, String fileName, byte[] data, int length) throws IOException {
+		if(segmentSize > 0 && segmentSize + length > maxSegmentSize) {
+			nextSegment();
+		}
+		segment.write(data, 0, length);
+		index.write(treeId + "\t" + fileName + "\t" + segmentId + "\t" + segmentSize + "\t" + length + "\n");
+		index.flush();
+		segmentSize += length;
+	}
+	
+	public synchronized void close() throws IOException {
+		segment.close();
+		index.close();
+	}
+	
+	private void nextSegment() throws IOException {
+		if(segment != null) {
+			segment.close();
+		}
+		segmentId++;
+		segment = new FileOutputStream(getSegmentFile(dir, segmentId));
+		segmentSize = 0;
+	}
+	
+	private static File getSegmentFile(File dir, int segmentId) {
+		return new File(dir, SEGMENT_PREFIX + segmentId + SEGMENT_SUFFIX);
+	}
+	
+	/**
+	 * In-memory buffer of an output file, appended to the archive on close
+	 */
+	private class Record extends ByteArrayOutputStream {
+		private int treeId;
+		private String fileName;
+		private boolean closed = false;
+		
+		public Record(int treeId, String fileName) {
+			super(BUFFER_SIZE);
+			this.treeId = treeId;
+			this.fileName = fileName;
+		}
+		
+		public void close() throws IOException {
+			if(closed) return;
+			closed = true;
+			append(treeId, fileName, buf, count);
+			buf = null;
+		}
+	}
+	
+	// ---- READING ----
+	
+	/**
+	 * Random access to the records of an archive by tree id and file name
+	 */
+	public static class Reader {
+		private File dir;
+		private TreeMap<Integer, LinkedHashMap<String, long[]>> records = new TreeMap<Integer, LinkedHashMap<String, long[]>>();
+		private ArrayList<RandomAccessFile> segments = new ArrayList<RandomAccessFile>();
+		
+		/**
+		 * Loads the index of the archive in the given directory
+		 */
+		public Reader(String dirName) throws IOException {
+			dir = new File(dirName);
+			File indexFile = new File(dir, INDEX_FILE);
+			boolean truncated = !endsWithNewline(indexFile);
+			BufferedReader in = new BufferedReader(new FileReader(indexFile), BUFFER_SIZE);
+			try {
+				String line = in.readLine();
+				while(line != null) {
+					String nextLine = in.readLine();
+					if(nextLine == null && truncated) {
+						break; // last entry truncated by an interrupted run
+					}
+					if(line.length() == 0 || line.charAt(0) == '#') {
+						line = nextLine;
+						continue;
+					}
+					String[] fields = line.split("\t");
+					if(fields.length != 5) {
+						throw new IOException("Malformed archive index entry: " + line);
+					}
+					int treeId = Integer.parseInt(fields[0]);
+					LinkedHashMap<String, long[]> treeRecords = records.get(treeId);
+					if(treeRecords == null) {
+						treeRecords = new LinkedHashMap<String, long[]>();
+						records.put(treeId, treeRecords);
+					}
+					treeRecords.put(fields[1], new long[] {Long.parseLong(fields[2]), Long.parseLong(fields[3]), Long.parseLong(fields[4])});
+					line = nextLine;
+				}
+			} finally {
+				in.close();
+			}
+		}
+		
+		private static boolean endsWithNewline(File file) throws IOException {
+			RandomAccessFile in = new RandomAccessFile(file, "r");
+			try {
+				if(in.length() == 0) {
+					return true;
+				}
+				in.seek(in.length() - 1);
+				return in.read() == '\n';
+			} finally {
+				in.close();
+			}
+		}
+		
+		/**
+		 * Returns the ids of the archived trees in increasing order
+		 */
+		public ArrayList<Integer> getTreeIds() {
+			return new ArrayList<Integer>(records.keySet());
+		}
+		
+		/**
+		 * Returns the names of the files of the given tree (empty if the tree is not archived)
+		 */
+		public ArrayList<String> getFileNames(int treeId) {
+			if(!records.containsKey(treeId)) {
+				return new ArrayList<String>();
+			}
+			return new ArrayList<String>(records.get(treeId).keySet());
+		}
+		
+		/**
+		 * Returns the contents of the given file of a tree or null if there is no such record
+		 */
+		public synchronized byte[] read(int treeId, String fileName) throws IOException {
+			LinkedHashMap<String, long[]> treeRecords = records.get(treeId);
+			if(treeRecords == null || !treeRecords.containsKey(fileName)) {
+				return null;
+			}
+			long[] record = treeRecords.get(fileName);
+			if(record[2] > Integer.MAX_VALUE) {
+				throw new IOException("Archive record exceeds 2GB: tree " + treeId + " " + fileName);
+			}
+			byte[] data = new byte[(int) record[2]];
+			RandomAccessFile segment = getSegment((int) record[0]);
+			segment.seek(record[1]);
+			segment.readFully(data);
+			return data;
+		}
+		
+		/**
+		 * Writes the files of the given tree to outputDir/tree_<id>
+		 */
+		public void extract(int treeId, String outputDir) throws IOException {
+			File treeDir = new File(outputDir + "/tree" + "_" + treeId);
+			treeDir.mkdirs();
+			for(String fileName : getFileNames(treeId)) {
+				FileOutputStream out = new FileOutputStream(new File(treeDir, fileName));
+				try {
+					out.write(read(treeId, fileName));
+				} finally {
+					out.close();
+				}
+			}
+		}
+		
+		public synchronized void close() throws IOException {
+			for(RandomAccessFile segment : segments) {
+				if(segment != null) {
+					segment.close();
+				}
+			}
+			segments.clear();
+		}
+		
+		private RandomAccessFile getSegment(int segmentId) throws IOException {
+			while(segments.size() <= segmentId) {
+				segments.add(null);
+			}
+			if(segments.get(segmentId) == null) {
+				segments.set(segmentId, new RandomAccessFile(getSegmentFile(dir, segmentId), "r"));
+			}
+			return segments.get(segmentId);
+		}
+	}
+	
+	/**
+	 * Reproduces the tree directories of an archive
+	 * usage: RunArchive archiveDir [outputDir] [treeId ...] (default: the archive directory, all the trees)
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 1) {
+			System.err.println("Usage: RunArchive <archiveDir> [outputDir] [treeId ...]");
+			System.exit(-1);
+		}
+		Reader archive = new Reader(args[0]);
+		String outputDir = args.length > 1 ? args[1] : args[0];
+		ArrayList<Integer> treeIds = archive.getTreeIds();
+		if(args.length > 2) {
+			treeIds = new ArrayList<Integer>();
+			for(int i = 2; i < args.length; i++) {
+				treeIds.add(Integer.parseInt(args[i]));
+			}
+		}
+		for(int treeId : treeIds) {
+			if(archive.getFileNames(treeId).isEmpty()) {
+				System.err.println("No records of tree " + treeId + " in: " + args[0]);
+				System.exit(-1);
+			}
+			archive.extract(treeId, outputDir);
+		}
+		archive.close();
+	}
+}
@@ -0,0 +1,475 @@
+/*
+ * Program POMEGRANATE for cell lineage tree simulation and sampling
+ * by Victoria Popic (viq@stanford.edu) 2014-2015
+ *
+ * MIT License
+ *
+ * Copyright (c) 2014 Victoria Popic.
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.lang.annotation.Annotation;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-tree metrics of a simulation run: the wall time and the bytes allocated by the simulation thread
+ * in each phase (growth, sampling, VAFs, noise, output), and the size counts of the tree.
+ * The metrics of the completed trees are summarized into percentiles (JSON) and listed per tree (CSV).
+ * Each phase of a tree is also recorded as a JFR event (pomegranate.Phase), when JFR is available,
+ * so that the phases can be correlated with the GC activity of a recording.
+ * The totals of the completed trees and the size of the trees being grown are also kept up to date
+ * during the run for the progress MBean (see SimulationProgress).
+ */
+public class RunMetrics {
+	public enum Phase {
+		GROW, SAMPLE, VAF, NOISE, OUTPUT;
+		
+		public String getName() {
+			return name().toLowerCase(Locale.ROOT);
+		}
+	}
+	
+	public enum Count {
+		NODES, SNVS, CNV_AFFECTED_SNVS, SAMPLED_CELLS, BYTES_WRITTEN;
+		
+		public String getName() {
+			return name().toLowerCase(Locale.ROOT);
+		}
+	}
+	
+	private static final double[] PERCENTILES = {50, 90, 99};
+	private static final com.sun.management.ThreadMXBean threadBean = getThreadBean();
+	
+	private TreeMetrics[] trees;
+	// live totals of the completed trees
+	private AtomicLong[] totals = new AtomicLong[Count.values().length];
+	// trees being simulated (at most one per simulation thread)
+	private Set<TreeMetrics> activeTrees = Collections.newSetFromMap(new ConcurrentHashMap<TreeMetrics, Boolean>());
+	
+	public RunMetrics(int numTrees) {
+		trees = new TreeMetrics[numTrees];
+		for(int i = 0; i < totals.length; i++) {
+			totals[i] = new AtomicLong();
+		}
+		PhaseEvents.isAvailable(); // defines the event type before the first phase
+	}
+	
+	/**
+	 * Returns the metrics of the given tree, to be updated by the thread simulating it
+	 */
+	public TreeMetrics newTree(int treeId) {
+		TreeMetrics tree = new TreeMetrics(this, treeId);
+		trees[treeId] = tree;
+		activeTrees.add(tree);
+		return tree;
+	}
+	
+	private void complete(TreeMetrics tree) {
+		for(Count c : Count.values()) {
+			totals[c.ordinal()].addAndGet(tree.counts[c.ordinal()]);
+		}
+		activeTrees.remove(tree);
+	}
+	
+	/**
+	 * Returns the total count over the completed trees
+	 */
+	public long getTotal(Count c) {
+		return totals[c.ordinal()].get();
+	}
+	
+	/**
+	 * Returns the number of nodes of the largest tree being simulated (0 if none)
+	 */
+	public long getActiveTreeSize() {
+		long size = 0;
+		for(TreeMetrics tree : activeTrees) {
+			size = Math.max(size, tree.treeSize);
+		}
+		return size;
+	}
+	
+	/**
+	 * Returns the metrics of the completed trees
+	 * (must be called once the threads simulating the trees are done)
+	 */
+	private ArrayList<TreeMetrics> getCompletedTrees() {
+		ArrayList<TreeMetrics> completed = new ArrayList<TreeMetrics>();
+		for(TreeMetrics tree : trees) {
+			if(tree != null && tree.completed) {
+				completed.add(tree);
+			}
+		}
+		return completed;
+	}
+	
+	/**
+	 * Returns the total wall time of each phase over the completed trees, e.g. grow=1.20s sample=0.31s ...
+	 */
+	public String getPhaseSummary() {
+		ArrayList<TreeMetrics> completed = getCompletedTrees();
+		StringBuilder sb = new StringBuilder();
+		for(Phase p : Phase.values()) {
+			long nanos = 0;
+			for(TreeMetrics tree : completed) {
+				nanos += tree.nanos[p.ordinal()];
+			}
+			if(sb.length() > 0) {
+				sb.append(' ');
+			}
+			sb.append(p.getName()).append('=').append(String.format(Locale.ROOT, "%.2f", nanos/1e9)).append('s');
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Writes the metrics of each completed tree, one row per tree
+	 * (allocated bytes are -1 if the JVM does not measure thread allocations)
+	 */
+	public void writeCSV(Writer out) throws IOException {
+		out.write("tree");
+		for(Phase p : Phase.values()) {
+			out.write("," + p.getName() + "_seconds," + p.getName() + "_allocated_bytes");
+		}
+		for(Count c : Count.values()) {
+			out.write("," + c.getName());
+		}
+		out.write("\n");
+		for(TreeMetrics tree : getCompletedTrees()) {
+			StringBuilder row = new StringBuilder();
+			row.append(tree.treeId);
+			for(Phase p : Phase.values()) {
+				row.append(',').append(String.format(Locale.ROOT, "%.6f", tree.nanos[p.ordinal()]/1e9));
+				row.append(',').append(tree.allocatedBytes[p.ordinal()]);
+			}
+			for(Count c : Count.values()) {
+				row.append(',').append(tree.counts[c.ordinal()]);
+			}
+			out.write(row.append('\n').toString());
+		}
+	}
+	
+	/**
+	 * Writes the distribution over the completed trees (total, mean, percentiles, max)
+	 * of the per-phase wall time and allocated bytes and of the counts
+	 */
+	public void writeJSON(Writer out) throws IOException {
+		ArrayList<TreeMetrics> completed = getCompletedTrees();
+		int n = completed.size();
+		double[] values = new double[n];
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\n  \"trees\": ").append(n).append(",\n");
+		sb.append("  \"allocationsMeasured\": ").append(threadBean != null).append(",\n");
+		sb.append("  \"jfrEvents\": ").append(PhaseEvents.isAvailable()).append(",\n");
+		sb.append("  \"phases\": {\n");
+		for(Phase p : Phase.values()) {
+			sb.append("    \"").append(p.getName()).append("\": {\n");
+			for(int i = 0; i < n; i++) {
+				values[i] = completed.get(i).nanos[p.ordinal()]/1e9;
+			}
+			sb.append("      \"seconds\": ");
+			appendDistribution(sb, values);
+			sb.append(",\n");
+			for(int i = 0; i < n; i++) {
+				values[i] = completed.get(i).allocatedBytes[p.ordinal()];
+			}
+			sb.append("      \"allocatedBytes\": ");
+			appendDistribution(sb, values);
+			sb.append("\n    }").append((p.ordinal() < Phase.values().length - 1) ? ",\n" : "\n");
+		}
+		sb.append("  },\n  \"counts\": {\n");
+		for(Count c : Count.values()) {
+			for(int i = 0; i < n; i++) {
+				values[i] = completed.get(i).counts[c.ordinal()];
+			}
+			sb.append("    \"").append(c.getName()).append("\": ");
+			appendDistribution(sb, values);
+			sb.append((c.ordinal() < Count.values().length - 1) ? ",\n" : "\n");
+		}
+		sb.append("  }\n}\n");
+		out.write(sb.toString());
+	}
+	
+	/**
+	 * Appends {"total", "mean", "p50", "p90", "p99", "max"} of the values (nearest-rank percentiles)
+	 */
+	private static void appendDistribution(StringBuilder sb, double[] values) {
+		double[] sorted = values.clone();
+		Arrays.sort(sorted);
+		double total = 0;
+		for(double v : sorted) {
+			total += v;
+		}
+		int n = sorted.length;
+		sb.append("{\"total\": ").append(format(total));
+		sb.append(", \"mean\": ").append(format((n > 0) ? total/n : 0));
+		for(double p : PERCENTILES) {
+			int rank = (int) Math.ceil(p/100*n);
+			sb.append(", \"p").append((int) p).append("\": ").append(format((n > 0) ? sorted[Math.max(rank, 1) - 1] : 0));
+		}
+		sb.append(", \"max\": ").append(format((n > 0) ? sorted[n-1] : 0)).append('}');
+	}
+	
+	private static String format(double v) {
+		if(v == Math.rint(v) && Math.abs(v) < 1e15) {
+			return Long.toString((long) v);
+		}
+		return String.format(Locale.ROOT, "%.6f", v);
+	}
+	
+	private static com.sun.management.ThreadMXBean getThreadBean() {
+		try {
+			java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+			if(bean instanceof com.sun.management.ThreadMXBean) {
+				com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) bean;
+				if(allocationBean.isThreadAllocatedMemorySupported() && allocationBean.isThreadAllocatedMemoryEnabled()) {
+					return allocationBean;
+				}
+			}
+		} catch (LinkageError e) {
+			// not a HotSpot-compatible JVM
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns the bytes allocated so far by the current thread, -1 if not measured
+	 */
+	private static long getAllocatedBytes() {
+		return (threadBean != null) ? threadBean.getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+	}
+	
+	/**
+	 * Metrics of a single tree, updated by the thread simulating it:
+	 * the code of each phase follows a call to enter(phase), the last phase is ended by stop()
+	 * (a phase can be entered several times, its time and allocations are accumulated)
+	 */
+	public static class TreeMetrics {
+		/** Metrics of a tree that is not measured (all the updates are ignored) */
+		public static final TreeMetrics NONE = new TreeMetrics(null, -1);
+		
+		private RunMetrics run;
+		private int treeId;
+		private long[] nanos = new long[Phase.values().length];
+		private long[] allocatedBytes = new long[Phase.values().length];
+		private long[] counts = new long[Count.values().length];
+		private Phase phase;
+		private long phaseStart;
+		private long phaseAllocatedStart;
+		private Object phaseEvent;
+		private boolean completed = false;
+		// read by the progress monitoring
+		private volatile long treeSize = 0;
+		
+		private TreeMetrics(RunMetrics run, int treeId) {
+			this.run = run;
+			this.treeId = treeId;
+		}
+		
+		/**
+		 * Ends the current phase (if any) and starts the given phase
+		 */
+		public void enter(Phase p) {
+			if(run == null) return;
+			end();
+			phase = p;
+			// the event is started first, so that its creation is not counted in the phase
+			phaseEvent = PhaseEvents.begin();
+			phaseAllocatedStart = getAllocatedBytes();
+			phaseStart = System.nanoTime();
+		}
+		
+		/**
+		 * Ends the current phase and marks the tree as completed
+		 */
+		public void stop() {
+			if(run == null) return;
+			end();
+			phase = null;
+			completed = true;
+			run.complete(this);
+		}
+		
+		private void end() {
+			if(phase == null) return;
+			PhaseEvents.end(phaseEvent);
+			long now = System.nanoTime();
+			long allocated = getAllocatedBytes();
+			nanos[phase.ordinal()] += now - phaseStart;
+			long phaseAllocated = (allocated >= 0) ? allocated - phaseAllocatedStart : -1;
+			allocatedBytes[phase.ordinal()] = (phaseAllocated >= 0) ? allocatedBytes[phase.ordinal()] + phaseAllocated : -1;
+			PhaseEvents.commit(phaseEvent, treeId, phase, phaseAllocated);
+			phaseEvent = null;
+		}
+		
+		public void add(Count c, long n) {
+			if(run == null) return;
+			counts[c.ordinal()] += n;
+		}
+		
+		/**
+		 * Sets the current number of nodes of the tree (while it grows)
+		 */
+		public void setTreeSize(long numNodes) {
+			treeSize = numNodes;
+		}
+		
+		/**
+		 * Returns the output of the tree counting the bytes written to it (BYTES_WRITTEN, before compression)
+		 */
+		public TreeOutput meter(final TreeOutput output) {
+			if(run == null) return output;
+			return new TreeOutput() {
+				public OutputStream open(String fileName) throws IOException {
+					return new TreeOutput.CountingOutputStream(output.open(fileName)) {
+						public void close() throws IOException {
+							super.close();
+							add(Count.BYTES_WRITTEN, getCount());
+						}
+					};
+				}
+				
+				public String getLocation() {
+					return output.getLocation();
+				}
+				
+				public String getPath(String fileName) {
+					return output.getPath(fileName);
+				}
+			};
+		}
+	}
+	
+	/**
+	 * JFR events of the phases, defined at runtime through jdk.jfr.EventFactory (JDK 11+),
+	 * since the sources are compiled against the Java 8 API;
+	 * an event is only created while the event type is enabled in a recording
+	 */
+	private static class PhaseEvents {
+		private static Object eventType;
+		private static Object factory;
+		private static Method newEvent;
+		private static Method isEnabled;
+		private static Method begin;
+		private static Method end;
+		private static Method set;
+		private static Method commit;
+		
+		static {
+			try {
+				Class<?> annotationElementClass = Class.forName("jdk.jfr.AnnotationElement");
+				Class<?> valueDescriptorClass = Class.forName("jdk.jfr.ValueDescriptor");
+				Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+				Class<?> eventClass = Class.forName("jdk.jfr.Event");
+				Constructor<?> annotation = annotationElementClass.getConstructor(Class.class, Object.class);
+				Constructor<?> field = valueDescriptorClass.getConstructor(Class.class, String.class);
+				List<Object> annotations = new ArrayList<Object>();
+				annotations.add(annotation.newInstance(annotationClass("jdk.jfr.Name"), "pomegranate.Phase"));
+				annotations.add(annotation.newInstance(annotationClass("jdk.jfr.Label"), "Simulation Phase"));
+				annotations.add(annotation.newInstance(annotationClass("jdk.jfr.Category"), new String[] {"POMEGRANATE"}));
+				annotations.add(annotation.newInstance(annotationClass("jdk.jfr.StackTrace"), false));
+				List<Object> fields = new ArrayList<Object>();
+				fields.add(field.newInstance(int.class, "tree"));
+				fields.add(field.newInstance(String.class, "phase"));
+				fields.add(field.newInstance(long.class, "allocatedBytes"));
+				factory = factoryClass.getMethod("create", List.class, List.class).invoke(null, annotations, fields);
+				newEvent = factoryClass.getMethod("newEvent");
+				eventType = factoryClass.getMethod("getEventType").invoke(factory);
+				isEnabled = eventType.getClass().getMethod("isEnabled");
+				begin = eventClass.getMethod("begin");
+				end = eventClass.getMethod("end");
+				set = eventClass.getMethod("set", int.class, Object.class);
+				commit = eventClass.getMethod("commit");
+				// the first event of the type is slow to create and to end (not committed)
+				Object event = newEvent.invoke(factory);
+				begin.invoke(event);
+				end.invoke(event);
+				set.invoke(event, 0, 0);
+			} catch (Exception e) {
+				// JFR is not available
+				factory = null;
+			} catch (LinkageError e) {
+				factory = null;
+			}
+		}
+		
+		@SuppressWarnings("unchecked")
+		private static Class<? extends Annotation> annotationClass(String name) throws ClassNotFoundException {
+			return (Class<? extends Annotation>) Class.forName(name);
+		}
+		
+		public static boolean isAvailable() {
+			return factory != null;
+		}
+		
+		/**
+		 * Returns a started event, or null if the events are not recorded
+		 */
+		public static Object begin() {
+			if(factory == null) return null;
+			try {
+				if(!(Boolean) isEnabled.invoke(eventType)) return null;
+				Object event = newEvent.invoke(factory);
+				begin.invoke(event);
+				return event;
+			} catch (Exception e) {
+				return null;
+			}
+		}
+		
+		public static void end(Object event) {
+			if(event == null) return;
+			try {
+				end.invoke(event);
+			} catch (Exception e) {
+				// the event is ended by the commit
+			}
+		}
+		
+		/**
+		 * Commits the ended event
+		 */
+		public static void commit(Object event, int treeId, Phase phase, long allocatedBytes) {
+			if(event == null) return;
+			try {
+				set.invoke(event, 0, treeId);
+				set.invoke(event, 1, phase.getName());
+				set.invoke(event, 2, allocatedBytes);
+				commit.invoke(event);
+			} catch (Exception e) {
+				// the event is dropped
+			}
+		}
+	}
+}
@@ -27,12 +27,15 @@
 */
 
 import java.awt.Color;
-import java.text.DecimalFormat;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.Random;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 
 /**
  * Simulated cell lineage tree
@@ -40,73 +43,144 @@ import java.util.Random;
  * the path from the GL root to the node contains all the mutations present in this cell population.
  * The tree can be sampled using randomized or localized sampling schemes.
  */
-public class SimulatedTree {
+public class SimulatedTree implements LineageTree<TumorSample> {
 	
 	private ArrayList<CellPopulation> nodes; 
-	private HashMap<CellPopulation, ArrayList<CellPopulation>> edges;
+	/** Undead populations in creation order (the growth frontier) */
+	private ArrayList<CellPopulation> liveNodes;
+	/** Next event of each undead population (event-driven growth) */
+	private GrowthEventQueue events;
+	private int iteration = 0;
+	/** Children of each population, in the order in which the populations first divided */
+	private LinkedHashMap<CellPopulation, ArrayList<CellPopulation>> edges;
 	private int numDeadNodes;
-	private Random randGen = new Random();
+	/** Pre-order (Euler tour) subtree index: position range of each node's subtree (by id) */
+	private CellPopulation[] preorder;
+	private int[] subtreeStart;
+	private int[] subtreeEnd;
+	/** Scratch buffer for lineage traversals */
+	private CellPopulation[] lineage = new CellPopulation[64];
+	/** Random streams of the growth and sampling stages */
+	private RandomStream randGen;
+	private RandomStream samplingRandGen;
+	private BinomialSampler samplingBinomial;
+	private Parameters params;
+	/** Population and mutation ids are assigned per tree, so that trees are independent of each other */
+	private int populationCounter = 0;
+	private int mutationCounter = 0;
 	
 	/**
 	 * Creates an initial tree with the GL root node
 	 */
-	public SimulatedTree() {
+	public SimulatedTree(Parameters simParams, RandomStream treeRandGen) {
+		params = simParams;
+		randGen = treeRandGen.split();
+		samplingRandGen = treeRandGen.split();
+		samplingBinomial = new BinomialSampler(samplingRandGen);
 		nodes = new ArrayList<CellPopulation>();
-		edges = new HashMap<CellPopulation, ArrayList<CellPopulation>>();
-		CellPopulation germlineRoot = new CellPopulation(); 
+		edges = new LinkedHashMap<CellPopulation, ArrayList<CellPopulation>>();
+		CellPopulation germlineRoot = new CellPopulation(populationCounter++); 
 		germlineRoot.setGermline();
 		nodes.add(germlineRoot);
+		liveNodes = new ArrayList<CellPopulation>();
+		liveNodes.add(germlineRoot);
 		numDeadNodes = 0;
 	}
 	
 	/**
 	 * For each undead cell population node in the tree
 	 * create a descendant population or undergo death (except root)
-	 * with some probability
+	 * with some probability.
+	 * Only the live populations are visited; they are kept in creation order,
+	 * so the populations are processed in the same order as in a scan of all the nodes
 	 */
 	public void grow() {
+		preorder = null;
+		if(params.EVENT_DRIVEN_GROWTH) {
+			growByEvents();
+			return;
+		}
 		ArrayList<CellPopulation> children = new ArrayList<CellPopulation>();
-		for(CellPopulation node : nodes) {
-			if(node.isDead()) continue;
+		int numLive = 0;
+		for(int i = 0; i < liveNodes.size(); i++) {
+			CellPopulation node = liveNodes.get(i);
 		
 			// population death
 			float death_roll = randGen.nextFloat();
-			if(death_roll < Parameters.PROB_DEATH && !node.isGermline()) {
+			if(death_roll < params.PROB_DEATH && !node.isGermline()) {
 				node.setDead();
 				numDeadNodes++;
 				continue;
 			}
+			liveNodes.set(numLive++, node); // compact the frontier in place
 			
 			// division
-			Mutation childMut = null;
 			float roll = randGen.nextFloat();
-			if(roll < Parameters.PROB_SNV) {
-				if(node.isCNV() && Parameters.UP_CNV_EFFECT){
-					childMut = new Mutation.SNV((Mutation.CNV) node.getLastMutation());
-				} else {
-					childMut = new Mutation.SNV();
-				}
-			} else if(roll < (Parameters.PROB_SNV + Parameters.PROB_CNV)) {
-				if(node.isCNV() || node.isGermline || !Parameters.UP_CNV_EFFECT) {
-					childMut = new Mutation.CNV();
-				} else {
-					childMut = new Mutation.CNV((Mutation.SNV) node.getLastMutation());
-				}
+			if(roll < params.PROB_SNV) {
+				children.add(divide(node, false));
+			} else if(roll < (params.PROB_SNV + params.PROB_CNV)) {
+				children.add(divide(node, true));
 			}
-			if(childMut == null) continue;
-			
-			CellPopulation child = new CellPopulation(); 
-			child.setSize(randGen.nextInt(Parameters.MAX_POPULATION_SIZE));
-			child.setMutations(node.getMutations()); // all the parent mutations 
-			child.addMutation(childMut); // + new mutation
-			children.add(child);
-			ArrayList<CellPopulation> nbrs = edges.get(node);
-			if(nbrs == null) {
-				edges.put(node, new ArrayList<CellPopulation>());
+		}
+		liveNodes.subList(numLive, liveNodes.size()).clear();
+		liveNodes.addAll(children);
+		nodes.addAll(children);
+	}
+	
+	/**
+	 * Event-driven growth iteration: only the populations with an event
+	 * (death or division) scheduled for this iteration are visited
+	 */
+	private void growByEvents() {
+		if(events == null) {
+			events = new GrowthEventQueue(params, randGen);
+			events.schedule(nodes.get(0).id, iteration - 1, true);
+		}
+		ArrayList<CellPopulation> children = new ArrayList<CellPopulation>();
+		for(int id = events.next(iteration); id != GrowthEventQueue.NONE; id = events.next(iteration)) {
+			// nodes are in creation order during growth, so they can be looked up by id
+			CellPopulation node = nodes.get(id);
+			int event = events.nextEventType(node.isGermline());
+			if(event == GrowthEventQueue.DEATH) {
+				node.setDead();
+				numDeadNodes++;
+				continue;
 			}
-			edges.get(node).add(child);
+			CellPopulation child = divide(node, event == GrowthEventQueue.CNV);
+			children.add(child);
+			events.schedule(node.id, iteration, node.isGermline());
+			events.schedule(child.id, iteration, false);
 		}
 		nodes.addAll(children);
+		iteration++;
+	}
+	
+	/**
+	 * Creates a descendant population of the node that acquired a new SNV or CNV
+	 */
+	private CellPopulation divide(CellPopulation node, boolean isCNV) {
+		Mutation childMut;
+		if(!isCNV) {
+			if(node.isCNV() && params.UP_CNV_EFFECT){
+				childMut = new Mutation.SNV(mutationCounter++, (Mutation.CNV) node.getLastMutation(), randGen);
+			} else {
+				childMut = new Mutation.SNV(mutationCounter++, randGen);
+			}
+		} else {
+			if(node.isCNV() || node.isGermline || !params.UP_CNV_EFFECT) {
+				childMut = new Mutation.CNV(mutationCounter++, randGen);
+			} else {
+				childMut = new Mutation.CNV(mutationCounter++, (Mutation.SNV) node.getLastMutation(), randGen);
+			}
+		}
+		CellPopulation child = new CellPopulation(populationCounter++, node, childMut); // parent mutations + new mutation
+		child.setSize(randGen.nextInt(params.MAX_POPULATION_SIZE));
+		ArrayList<CellPopulation> nbrs = edges.get(node);
+		if(nbrs == null) {
+			edges.put(node, new ArrayList<CellPopulation>());
+		}
+		edges.get(node).add(child);
+		return child;
 	}
 	
 	public int getNumNodes() {
@@ -117,12 +191,19 @@ public class SimulatedTree {
 		return numDeadNodes;
 	}
 	
+	/**
+	 * Returns the number of undead nodes, including the GL root
+	 */
+	public int getNumLiveNodes() {
+		return nodes.size() - numDeadNodes;
+	}
+	
 	/**
 	 * Randomly pick a subset of undead nodes from the node list
 	 */
-	public ArrayList<CellPopulation> selectSubclones(ArrayList<CellPopulation> nodeList, int maxSubclones) {
-		Collections.shuffle(nodeList);
-		int numSubclonesToSample = 1 + (maxSubclones > 1 ? randGen.nextInt(maxSubclones-1) : 0);
+	public ArrayList<CellPopulation> selectSubclones(List<CellPopulation> nodeList, int maxSubclones) {
+		Collections.shuffle(nodeList, samplingRandGen);
+		int numSubclonesToSample = 1 + (maxSubclones > 1 ? samplingRandGen.nextInt(maxSubclones-1) : 0);
 		ArrayList<CellPopulation> subclones = new ArrayList<CellPopulation>();
 		for(int i = 0; i < nodeList.size(); i++) {
 			if(subclones.size() >= numSubclonesToSample) break;
@@ -137,77 +218,79 @@ public class SimulatedTree {
 	 * Extract a sample using randomized sampling
 	 */
 	public TumorSample getSample() {
-		ArrayList<CellPopulation> subclones = selectSubclones(nodes, Parameters.MAX_NUM_SUBCLONES);
-		return createSample(subclones, Parameters.NUM_CELLS_PER_SAMPLE, getNormalContamination());
+		ArrayList<CellPopulation> subclones = selectSubclones(nodes, params.MAX_NUM_SUBCLONES);
+		return createSample(subclones, params.NUM_CELLS_PER_SAMPLE, getNormalContamination());
 	}
 	
-	private TumorSample createSample(ArrayList<CellPopulation> subclones, int numCellsInSample, int numNormalCells) {
-		TumorSample sample = new TumorSample();
+	TumorSample createSample(ArrayList<CellPopulation> subclones, int numCellsInSample, int numNormalCells) {
+		TumorSample sample = new TumorSample(samplingRandGen);
 		sample.setNumNormalCells(numNormalCells);
-		int totalCellCount = 0;
+		sample.subclones = subclones;
+		long totalCellCount = 0;
 		for(CellPopulation subclone : subclones) {
-			subclone.sampleColors.add(sample.color);
 			totalCellCount += subclone.size;
 		}
-		// simulate a multinomial distribution
-		int numSubclones = subclones.size();
-		float[] subcloneProbabilities = new float[numSubclones];
-		float[] intervalLimits = new float[numSubclones];
-		subcloneProbabilities[0] = (float) subclones.get(0).size/totalCellCount;
-		for(int i = 0; i < numSubclones-1; i++) {
-			subcloneProbabilities[i] = (float) subclones.get(i).size/totalCellCount;
-			intervalLimits[i] = ((i > 0) ? intervalLimits[i-1] : 0) + subcloneProbabilities[i];
-		}
-		intervalLimits[numSubclones-1] = 1;
-
-		for(int i = 0; i < numCellsInSample - numNormalCells; i++) {
-			float trialCell = randGen.nextFloat();
-			// find the interval to classify the cell
-			for(int j = 0; j < numSubclones; j++) {
-				if(trialCell < intervalLimits[j]) {
-					sample.addCell(subclones.get(j));
-					break;
-				}
+		// simulate a multinomial distribution with probabilities proportional to the subclone sizes
+		// as a sequence of binomials conditioned on the cells remaining after the previous subclones
+		int remainingCells = numCellsInSample - numNormalCells;
+		long remainingCellCount = totalCellCount;
+		for(int i = 0; i < subclones.size() && remainingCells > 0; i++) {
+			CellPopulation subclone = subclones.get(i);
+			int numCells;
+			if(remainingCellCount <= subclone.size) { // no cells left in the remaining subclones
+				numCells = remainingCells;
+			} else {
+				numCells = samplingBinomial.sample(remainingCells, (double) subclone.size/remainingCellCount);
 			}
+			sample.addCells(subclone, numCells);
+			remainingCells -= numCells;
+			remainingCellCount -= subclone.size;
 		}
 		return sample;
 	}
 	
 	/**
-	 * Returns the number of cells in the subtree anchored at root,
-	 * including the root node
+	 * Builds the pre-order (Euler tour) index of the tree after growth:
+	 * the nodes of each subtree occupy a contiguous range of the pre-order,
+	 * and the number of cells in each subtree is accumulated bottom-up,
+	 * so both are available in O(1) per subtree
 	 */
-	private int getSubtreeSize(CellPopulation root) {
-		int size = 0;
-		ArrayList<CellPopulation> q = new ArrayList<CellPopulation>();
-		q.add(root);
-		while(q.size() > 0) {
-			CellPopulation p = q.remove(0);
-			size += (p.isDead ? 0 : p.size);
-			if(edges.get(p) != null) {
-				q.addAll(edges.get(p));
-			}
+	private void indexSubtrees() {
+		int numNodes = nodes.size();
+		// nodes by id (ids are assigned in creation order, so parents precede their children)
+		CellPopulation[] populations = new CellPopulation[numNodes];
+		for(CellPopulation n : nodes) {
+			populations[n.id] = n;
 		}
-		root.setSubtreeSize(size);
-		return size;
-	}
-	
-	/**
-	 * Returns all the nodes in the subtree anchored at root,
-	 * including the root node
-	 */
-	private ArrayList<CellPopulation> getSubtreeNodes(CellPopulation root) {
-		ArrayList<CellPopulation> subtree = new ArrayList<CellPopulation>();
-		ArrayList<CellPopulation> q = new ArrayList<CellPopulation>();
-		q.add(root);
-		while(q.size() > 0) {
-			CellPopulation p = q.remove(0);
-			subtree.add(p);
-			if(edges.get(p) != null) {
-				q.addAll(edges.get(p));
+		int[] numSubtreeNodes = new int[numNodes];
+		for(int v = 0; v < numNodes; v++) {
+			numSubtreeNodes[v] = 1;
+			populations[v].setSubtreeSize(populations[v].isDead ? 0 : populations[v].size);
+		}
+		for(int v = numNodes-1; v > 0; v--) {
+			CellPopulation p = populations[v].parent;
+			numSubtreeNodes[p.id] += numSubtreeNodes[v];
+			p.setSubtreeSize(p.getSubtreeSize() + populations[v].getSubtreeSize());
+		}
+		
+		preorder = new CellPopulation[numNodes];
+		subtreeStart = new int[numNodes];
+		subtreeEnd = new int[numNodes];
+		ArrayList<CellPopulation> stack = new ArrayList<CellPopulation>();
+		stack.add(populations[0]);
+		int pos = 0;
+		while(stack.size() > 0) {
+			CellPopulation p = stack.remove(stack.size()-1);
+			subtreeStart[p.id] = pos;
+			subtreeEnd[p.id] = pos + numSubtreeNodes[p.id];
+			preorder[pos++] = p;
+			ArrayList<CellPopulation> children = edges.get(p);
+			if(children != null) {
+				for(int i = children.size()-1; i >= 0; i--) {
+					stack.add(children.get(i));
+				}
 			}
 		}
-		return subtree;
 	}
 	
 	/**
@@ -215,23 +298,31 @@ public class SimulatedTree {
 	 * by sampling from k disjoint subtrees.
 	 * If the tree does not contain k disjoint subtrees,
 	 * sampling will be done from the maximum number of disjoint 
-	 * subtrees, with the minimum number of samples overlapping
+	 * subtrees, with the minimum number of samples overlapping;
+	 * no samples are returned if no population below the root has cells
 	 */
 	public ArrayList<TumorSample> getKLocalizedSamples(int k) {
-		if(edges.get(nodes.get(0)) == null) {
-			System.err.println("Cannot collect samples from the tree, only the root node is present");
-			System.exit(-1);
+		if(preorder == null) {
+			indexSubtrees();
 		}
-		
 		// stores the collected samples
 		ArrayList<TumorSample> samples = new ArrayList<TumorSample>();
+		if(k <= 0) {
+			return samples;
+		}
+		
 		// queue of disjoint subtree roots (initially undead subtree children of GL root)
 		ArrayList<CellPopulation> subtreeRoots = new ArrayList<CellPopulation>();
-		for(CellPopulation cp : edges.get(nodes.get(0))) {
-			if(getSubtreeSize(cp) > 0) {
-				subtreeRoots.add(cp);
+		if(edges.get(preorder[0]) != null) {
+			for(CellPopulation cp : edges.get(preorder[0])) {
+				if(cp.getSubtreeSize() > 0) {
+					subtreeRoots.add(cp);
+				}
 			}
 		}
+		if(subtreeRoots.size() == 0) { // no populations with cells to sample from
+			return samples;
+		}
 		while(subtreeRoots.size() < k) { 
 			ArrayList<CellPopulation> children = new ArrayList<CellPopulation>();
 			int parentIdx = 0;
@@ -239,7 +330,7 @@ public class SimulatedTree {
 				CellPopulation p = subtreeRoots.get(i);
 				if(edges.get(p) != null) {
 					for(CellPopulation cp : edges.get(p)) {
-						if(getSubtreeSize(cp) > 0) {
+						if(cp.getSubtreeSize() > 0) {
 							children.add(cp);
 						}
 					}
@@ -262,26 +353,28 @@ public class SimulatedTree {
 		       }
 		   });
 		
-		// define the subtrees
-		HashMap<Integer, ArrayList<CellPopulation>> subtrees = new HashMap<Integer, ArrayList<CellPopulation>>();
+		// define the subtrees as slices of a working copy of the pre-order
+		// (the subclone selection shuffles each slice in place)
+		List<CellPopulation> samplingOrder = Arrays.asList(preorder.clone());
+		ArrayList<List<CellPopulation>> subtrees = new ArrayList<List<CellPopulation>>();
 		for(int i = 0; i < k; i++) {
 			CellPopulation root = subtreeRoots.get(i % subtreeRoots.size());
-			subtrees.put(i, getSubtreeNodes(root));
+			subtrees.add(samplingOrder.subList(subtreeStart[root.id], subtreeEnd[root.id]));
 		}
 		
 		// select samples from each subtree
 		for(int i = 0; i < k; i++) {
-			ArrayList<CellPopulation> subclones = selectSubclones(subtrees.get(i), Parameters.MAX_NUM_SUBCLONES);
+			ArrayList<CellPopulation> subclones = selectSubclones(subtrees.get(i), params.MAX_NUM_SUBCLONES);
 			
 			// add a subclone from a neighboring subtree
-			if(Parameters.MIX_NBR_SUBTREE_SUBCLONE) {
+			if(params.MIX_NBR_SUBTREE_SUBCLONE) {
 				if(i > 0) {
 					subclones.addAll(selectSubclones(subtrees.get(i-1), 1));
 				} else {
 					subclones.addAll(selectSubclones(subtrees.get(k-1), 1));
 				}
 			}
-			samples.add(createSample(subclones, Parameters.NUM_CELLS_PER_SAMPLE, getNormalContamination()));
+			samples.add(createSample(subclones, params.NUM_CELLS_PER_SAMPLE, getNormalContamination()));
 		}
 		return samples;
 	}
@@ -291,128 +384,249 @@ public class SimulatedTree {
 	 * based on the provided contamination thresholds
 	 */
 	private int getNormalContamination() {
-		double percentNormal = Parameters.MIN_PERCENT_NORMAL_CONTAMINATION;
-		if(Parameters.MAX_PERCENT_NORMAL_CONTAMINATION > Parameters.MIN_PERCENT_NORMAL_CONTAMINATION) {
-			percentNormal += new Random().nextDouble()*(Parameters.MAX_PERCENT_NORMAL_CONTAMINATION - Parameters.MIN_PERCENT_NORMAL_CONTAMINATION);
+		double percentNormal = params.MIN_PERCENT_NORMAL_CONTAMINATION;
+		if(params.MAX_PERCENT_NORMAL_CONTAMINATION > params.MIN_PERCENT_NORMAL_CONTAMINATION) {
+			percentNormal += samplingRandGen.nextDouble()*(params.MAX_PERCENT_NORMAL_CONTAMINATION - params.MIN_PERCENT_NORMAL_CONTAMINATION);
 		} 
-		int numNormalCells = (int) ((double)(percentNormal*Parameters.NUM_CELLS_PER_SAMPLE)/100.0);
+		int numNormalCells = (int) (percentNormal*params.NUM_CELLS_PER_SAMPLE/100.0);
 		return numNormalCells;
 	}
 	
+	/**
+	 * Computes the VAF of every sampled SNV in each of the given samples in a single pass over the tree
+	 * (column 0 corresponds to the normal sample).
+	 * The sampled cells are aggregated bottom-up into per-sample subtree cell counts; 
+	 * an SNV carried by the cells in the subtree of its node has one variant copy per cell
+	 * plus one per cell in the subtree of each descendant CNV duplicating its arm and haplotype,
+	 * while the total number of copies of a locus depends only on the CNVs affecting its chromosome arm.
+	 */
+	public VAFMatrix getSNVFrequencies(ArrayList<TumorSample> samples) {
+		int numNodes = nodes.size();
+		int numSamples = samples.size() + 1;
+		// nodes by id (ids are assigned in creation order, so parents precede their children)
+		CellPopulation[] populations = new CellPopulation[numNodes];
+		for(CellPopulation n : nodes) {
+			populations[n.id] = n;
+		}
+		int[] parent = new int[numNodes];
+		parent[0] = -1;
+		for(int v = 1; v < numNodes; v++) {
+			parent[v] = populations[v].parent.id;
+		}
+		
+		// number of sampled cells in the subtree of each node per sample
+		long[] subtreeCells = new long[numNodes*numSamples];
+		for(int k = 1; k < numSamples; k++) {
+			HashMap<CellPopulation, Integer> counts = samples.get(k-1).cellPopulationCounts;
+			for(CellPopulation c : counts.keySet()) {
+				subtreeCells[c.id*numSamples + k] += counts.get(c);
+			}
+		}
+		for(int v = numNodes-1; v > 0; v--) {
+			int p = parent[v];
+			for(int k = 1; k < numSamples; k++) {
+				subtreeCells[p*numSamples + k] += subtreeCells[v*numSamples + k];
+			}
+		}
+		
+		// variant copies of each SNV and the additional copies of each chromosome arm due to CNVs
+		long[] varCopies = new long[numNodes*numSamples];
+		for(int v = 1; v < numNodes; v++) {
+			if(!populations[v].isCNV()) {
+				System.arraycopy(subtreeCells, v*numSamples, varCopies, v*numSamples, numSamples);
+			}
+		}
+		long[] armCopies = new long[2*Mutation.CHROMOSOME_LENGTHS.length*numSamples];
+		for(int w = 1; w < numNodes; w++) {
+			if(!populations[w].isCNV()) continue;
+			Mutation.CNV cnv = (Mutation.CNV) populations[w].getLastMutation();
+			int arm = 2*cnv.chr + cnv.arm;
+			for(int k = 1; k < numSamples; k++) {
+				armCopies[arm*numSamples + k] += subtreeCells[w*numSamples + k];
+			}
+			// the CNV duplicates the variant allele of the ancestral SNVs on the same arm and haplotype
+			for(int u = parent[w]; u > 0; u = parent[u]) {
+				if(populations[u].isCNV()) continue;
+				Mutation.SNV snv = (Mutation.SNV) populations[u].getLastMutation();
+				if(snv.chr == cnv.chr && getArm(snv) == cnv.arm && snv.haplotype == cnv.haplotype) {
+					for(int k = 1; k < numSamples; k++) {
+						varCopies[u*numSamples + k] += subtreeCells[w*numSamples + k];
+					}
+				}
+			}
+		}
+		
+		// rows are the sampled SNVs in node (and so SNV id) order
+		int numRows = 0;
+		int[] rowNodes = new int[numNodes];
+		for(int v = 1; v < numNodes; v++) {
+			if(populations[v].isCNV()) continue;
+			for(int k = 1; k < numSamples; k++) {
+				if(subtreeCells[v*numSamples + k] != 0) {
+					rowNodes[numRows++] = v;
+					break;
+				}
+			}
+		}
+		Mutation.SNV[] snvs = new Mutation.SNV[numRows];
+		for(int i = 0; i < numRows; i++) {
+			snvs[i] = (Mutation.SNV) populations[rowNodes[i]].getLastMutation();
+		}
+		VAFMatrix freq = new VAFMatrix(snvs, numSamples);
+		int[] numCNVAffectedSNVs = new int[numSamples];
+		for(int i = 0; i < numRows; i++) {
+			int v = rowNodes[i];
+			int arm = 2*snvs[i].chr + getArm(snvs[i]);
+			for(int k = 1; k < numSamples; k++) {
+				if(subtreeCells[v*numSamples + k] == 0) continue;
+				long extraCopies = armCopies[arm*numSamples + k];
+				long totalCopies = 2*(subtreeCells[k] + samples.get(k-1).numNormalCells) + extraCopies;
+				freq.set(i, k, (double) varCopies[v*numSamples + k]/totalCopies);
+				if(extraCopies > 0) {
+					numCNVAffectedSNVs[k]++;
+				}
+			}
+		}
+		for(int k = 1; k < numSamples; k++) {
+			samples.get(k-1).numCNVAffectedSNVs = numCNVAffectedSNVs[k];
+		}
+		return freq;
+	}
+	
+	/**
+	 * Returns the chromosome arm of the SNV locus
+	 */
+	private static int getArm(Mutation.SNV snv) {
+		return (snv.position <= Mutation.CHROMOSOME_LENGTHS[snv.chr]/2) ? 0 : 1;
+	}
+	
 	public void resetColors() {
 		for(CellPopulation p : nodes) {
 			p.sampleColors = new ArrayList<Color>();
 		}
 	}
 	
+	/**
+	 * Colors the populations of the given samples only
+	 * (as if only these samples were collected, in the given order)
+	 */
+	private void setSampleColors(ArrayList<TumorSample> samples) {
+		resetColors();
+		for(TumorSample sample : samples) {
+			for(CellPopulation subclone : sample.subclones) {
+				subclone.sampleColors.add(sample.color);
+			}
+		}
+	}
+	
 	public String toString() {
-		String t = "";
+		StringBuilder sb = new StringBuilder();
+		try {
+			writeTree(sb);
+		} catch (IOException e) { 
+			// not thrown by StringBuilder
+		}
+		return sb.toString();
+	}
+	
+	/**
+	 * Writes the tree edges followed by the mutation of each node
+	 */
+	public void writeTree(Appendable out) throws IOException {
 		for(CellPopulation n : edges.keySet()) {
 			ArrayList<CellPopulation> nbrs = edges.get(n);
 			for(CellPopulation n2 : nbrs) {
 				if(n.isGermline) {
-					t += "GL";
+					out.append("GL");
 				} else {
-					t += n.getName();
+					out.append(n.getName());
 				}
-				t += "\t" + n2.getName() + "\n";
+				out.append('\t').append(n2.getName()).append('\n');
 			}
 		}
 		
 		for(CellPopulation n : nodes) {
-			t +=  n.getLastMutation() + "\n";
+			out.append(String.valueOf(n.getLastMutation())).append('\n');
 		}
-		return t;
 	}
 	
-	public String toDOT() {
-		DecimalFormat df = new DecimalFormat("#.##");
-		String t = "";
-		t += "digraph G { \n";
-		for(CellPopulation n : edges.keySet()) {
-			ArrayList<CellPopulation> nbrs = edges.get(n);
-			for(CellPopulation n2 : nbrs) {
-				t += n.id + " -> " + n2.id + ";\n";
-			}
+	/**
+	 * Writes the tree in DOT format
+	 */
+	public void writeDOT(Appendable out) throws IOException {
+		DOTWriter dot = new DOTWriter(out, params.MAX_POPULATION_SIZE);
+		dot.begin(false);
+		writeDOTNodes(dot, false);
+		dot.end();
+	}
+	
+	/**
+	 * Writes the tree in DOT format, indicating the populations included in each sample
+	 */
+	public void writeColoredDOT(Appendable out, ArrayList<TumorSample> samples) throws IOException {
+		setSampleColors(samples);
+		DOTWriter dot = new DOTWriter(out, params.MAX_POPULATION_SIZE);
+		dot.begin(true);
+		writeDOTNodes(dot, true);
+		ArrayList<Color> sampleColors = new ArrayList<Color>();
+		for(TumorSample sample : samples) {
+			sampleColors.add(sample.color);
 		}
-		for(CellPopulation n : nodes) {
-			if(!n.isGermline()) {
-				String color = "white";
-				if(n.isDead) {
-					color = "grey";
-				}
-				if(n.isCNV()) {
-					t += n.id + " [shape=star style=filled fillcolor=" + color + " fontname=\"helvetica-bold\" fontsize=42 label=\"" + n.getName() + "\"];\n";
-				} else {
-					t += n.id + " [shape=circle style=filled fillcolor=" + color + " fontname=\"helvetica-bold\" fontsize=56 label=\"" + n.getName() + "\"" + " width=" + df.format(5*((double)n.size/Parameters.MAX_POPULATION_SIZE)) + " height=2 ];\n";
-				}
-			} else {
-				t += n.id + " [label=\"GL\" fontname=\"arial-bold\" fontsize=56 width=5 height=5];\n";
+		dot.legend(sampleColors);
+		dot.end();
+	}
+	
+	/**
+	 * Writes the SNVs of each distinct subclone of the given samples, one row per subclone
+	 */
+	public void writeSubclones(LineageSimulator.RowWriter out, ArrayList<TumorSample> samples) throws IOException {
+		HashSet<CellPopulation> subclones = new HashSet<CellPopulation>();
+		for(TumorSample sample : samples) {
+			subclones.addAll(sample.cellPopulationCounts.keySet());
+		}
+		for(CellPopulation c : subclones) {
+			StringBuilder row = out.row();
+			appendSNVNames(row, c);
+			if(row.length() > 0) {
+				out.writeRow();
 			}
 		}
-		t += "}";
-		return t;
 	}
 	
-	public String toColoredDOT(ArrayList<TumorSample> samples) {
-		DecimalFormat df = new DecimalFormat("#.##");
-		String t = "";
-		t += "digraph G { \n";
-		t += "rankdir=TB;\n";
-	    for(CellPopulation n : edges.keySet()) {
+	/**
+	 * Appends the names of the SNVs in the cells of the population, ordered from the GL root
+	 */
+	private void appendSNVNames(StringBuilder sb, CellPopulation c) {
+		int depth = c.getNumMutations();
+		if(lineage.length < depth) {
+			lineage = new CellPopulation[2*depth];
+		}
+		for(CellPopulation p = c; p.depth > 0; p = p.parent) {
+			lineage[p.depth-1] = p;
+		}
+		for(int i = 0; i < depth; i++) {
+			if(lineage[i].isCNV()) continue;
+			lineage[i].getLastMutation().appendName(sb.append('\t'));
+		}
+	}
+	
+	private void writeDOTNodes(DOTWriter dot, boolean showSamples) throws IOException {
+		for(CellPopulation n : edges.keySet()) {
 			ArrayList<CellPopulation> nbrs = edges.get(n);
 			for(CellPopulation n2 : nbrs) {
-				t += n.id + " -> " + n2.id + ";\n";
+				dot.edge(n.id, n2.id);
 			}
 		}
+		StringBuilder name = new StringBuilder();
 		for(CellPopulation n : nodes) {
 			if(!n.isGermline()) {
-				String color = "white";
-				if(n.isDead) {
-					color = "grey";
-				} 
-				if(n.sampleColors.size() > 0) {
-					color = "\"";
-					for(int i = 0; i < n.sampleColors.size(); i++) {
-						Color c = n.sampleColors.get(i);
-						if(i != 0) {
-							color += ":";
-						}
-						color += String.format("#%02x%02x%02x", c.getRed(), c.getGreen(), c.getBlue());
-					}
-					color += "\"";
-				}
-				
-				if(n.isCNV()) {
-					t += n.id + " [shape=star style=filled fillcolor=" + color + " fontname=\"helvetica-bold\" fontsize=42 label=\"" + n.getName() + "\"];\n";
-				} else {
-					if(n.sampleColors.size() > 1) {
-						t += n.id + " [shape=circle style=wedged color=" + color + " fontname=\"helvetica-bold\" fontsize=56 label=\"" + n.getName() + "\"" + " width=" + df.format(5*((double)n.size/Parameters.MAX_POPULATION_SIZE)) +" height=2 ];\n";
-					} else {
-						t += n.id + " [shape=circle style=filled fillcolor=" + color + " fontname=\"helvetica-bold\" fontsize=56 label=\"" + n.getName() + "\"" + " width=" + df.format(5*((double)n.size/Parameters.MAX_POPULATION_SIZE)) + " height=2 ];\n";
-					}
-				}
+				name.setLength(0);
+				n.getLastMutation().appendName(name);
+				dot.node(n.id, name, n.size, n.isCNV(), n.isDead, showSamples ? n.sampleColors : null);
 			} else {
-				t += n.id + " [label=\"GL\" fontname=\"arial-bold\" fontsize=56 width=5 height=5];\n"; 
+				dot.germlineNode(n.id);
 			}
 		}
-		
-		t += "{";
-		t += "rank=sink;\n";
-		t += "Legend[shape=none, margin=0, label=";
-		t += "<<TABLE border=\"0\" cellborder=\"0\" cellspacing=\"0\"> \n";
-		t += "<TR>";
-		for(int i = 1; i <= samples.size(); i++) {
-			Color c = samples.get(i-1).color;
-			String color = "\""+String.format("#%02x%02x%02x", c.getRed(), c.getGreen(), c.getBlue())+"\"";
-			t += "<TD width=\"200\" height=\"200\" colspan=\"1\"><FONT POINT-SIZE=\"36.0\"><B>Sample " + i + "</B></FONT></TD><TD width=\"200\" height=\"200\" colspan=\"1\" BGCOLOR="+ color +"></TD>\n";
-		}
-		t += "</TR>";
-		t += "</TABLE>>];\n";
-	    t += "} \n";
-	    
-	    t += "}";
-		return t;
 	}
 
 }
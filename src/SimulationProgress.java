@@ -0,0 +1,156 @@
+/*
+ * Program POMEGRANATE for cell lineage tree simulation and sampling
+ * by Victoria Popic (viq@stanford.edu) 2014-2015
+ *
+ * MIT License
+ *
+ * Copyright (c) 2014 Victoria Popic.
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Live progress of a simulation run, registered as the MBean pomegranate:type=SimulationProgress
+ * of the platform MBean server (e.g. for jconsole or a JMX exporter).
+ * The rates are averages since the start of the run over the completed trees;
+ * a stalled run shows a growing SecondsSinceLastTree.
+ * The progress only counts the started and completed trees and their nodes;
+ * the SNV and output byte rates and CurrentTreeSize (the number of nodes of the largest tree being simulated)
+ * are read from the run metrics, and are -1 when the run is not measured (-metrics).
+ */
+public class SimulationProgress implements SimulationProgressMBean {
+	public static final String OBJECT_NAME = "pomegranate:type=SimulationProgress";
+	
+	private int numTrees;
+	private RunMetrics metrics;
+	private ObjectName name;
+	private long startTime = System.nanoTime();
+	private volatile long lastCompletionTime = startTime;
+	private AtomicInteger numActiveTrees = new AtomicInteger();
+	private AtomicInteger numCompletedTrees = new AtomicInteger();
+	private AtomicLong numNodes = new AtomicLong();
+	
+	/**
+	 * @param runMetrics metrics of the run, or null if the run is not measured
+	 */
+	public SimulationProgress(int numTrees, RunMetrics runMetrics) {
+		this.numTrees = numTrees;
+		metrics = runMetrics;
+	}
+	
+	/**
+	 * Registers the MBean with the platform MBean server
+	 * @throws JMException if the MBean cannot be registered (e.g. a run is already registered in this JVM)
+	 */
+	public void register() throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		name = new ObjectName(OBJECT_NAME);
+		server.registerMBean(this, name);
+	}
+	
+	public void unregister() throws JMException {
+		if(name == null) return;
+		ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		name = null;
+	}
+	
+	/**
+	 * Called by the thread starting the simulation of a tree
+	 */
+	public void startTree() {
+		numActiveTrees.incrementAndGet();
+	}
+	
+	/**
+	 * Called by the thread simulating a tree once the tree is complete (before endTree)
+	 */
+	public void completeTree(int treeNodes) {
+		numNodes.addAndGet(treeNodes);
+		lastCompletionTime = System.nanoTime();
+		numCompletedTrees.incrementAndGet();
+	}
+	
+	/**
+	 * Called by the thread simulating a tree once it is done with the tree (completed or failed)
+	 */
+	public void endTree() {
+		numActiveTrees.decrementAndGet();
+	}
+	
+	public int getTotalTrees() {
+		return numTrees;
+	}
+	
+	public int getCompletedTrees() {
+		return numCompletedTrees.get();
+	}
+	
+	public int getActiveTrees() {
+		return numActiveTrees.get();
+	}
+	
+	public double getElapsedSeconds() {
+		return (System.nanoTime() - startTime)/1e9;
+	}
+	
+	public double getTreesPerSecond() {
+		return numCompletedTrees.get()/getElapsedSeconds();
+	}
+	
+	public double getNodesPerSecond() {
+		return numNodes.get()/getElapsedSeconds();
+	}
+	
+	public double getSNVsPerSecond() {
+		return (metrics != null) ? metrics.getTotal(RunMetrics.Count.SNVS)/getElapsedSeconds() : -1;
+	}
+	
+	public double getOutputBytesPerSecond() {
+		return (metrics != null) ? metrics.getTotal(RunMetrics.Count.BYTES_WRITTEN)/getElapsedSeconds() : -1;
+	}
+	
+	public long getCurrentTreeSize() {
+		return (metrics != null) ? metrics.getActiveTreeSize() : -1;
+	}
+	
+	public double getSecondsSinceLastTree() {
+		return (System.nanoTime() - lastCompletionTime)/1e9;
+	}
+	
+	/**
+	 * Returns the estimated time to complete the remaining trees at the current tree rate
+	 * (-1 until the first tree is completed)
+	 */
+	public double getEtaSeconds() {
+		int numCompleted = numCompletedTrees.get();
+		if(numCompleted == 0) {
+			return -1;
+		}
+		return (numTrees - numCompleted)/getTreesPerSecond();
+	}
+}
@@ -0,0 +1,115 @@
+/*
+ * Program POMEGRANATE for cell lineage tree simulation and sampling
+ * by Victoria Popic (viq@stanford.edu) 2014-2015
+ *
+ * MIT License
+ *
+ * Copyright (c) 2014 Victoria Popic.
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Destination of the output files of a simulated tree:
+ * the classic tree directory or a record stream of a run archive
+ */
+public abstract class TreeOutput {
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	/**
+	 * Opens the given output file of the tree; the file is complete once the stream is closed
+	 */
+	public abstract OutputStream open(String fileName) throws IOException;
+	
+	/**
+	 * Returns the location of the tree output (used in messages)
+	 */
+	public abstract String getLocation();
+	
+	public Writer openWriter(String fileName) throws IOException {
+		return new BufferedWriter(new OutputStreamWriter(open(fileName)), BUFFER_SIZE);
+	}
+	
+	public String getPath(String fileName) {
+		return getLocation() + "/" + fileName;
+	}
+	
+	/**
+	 * Output files stored in a directory per tree
+	 */
+	public static class Directory extends TreeOutput {
+		private File dir;
+		
+		public Directory(String dirName) {
+			dir = new File(dirName);
+			dir.mkdirs();
+		}
+		
+		public OutputStream open(String fileName) throws IOException {
+			return new FileOutputStream(new File(dir, fileName));
+		}
+		
+		public String getLocation() {
+			return dir.getAbsolutePath();
+		}
+	}
+	
+	/**
+	 * Stream counting the bytes written through it
+	 */
+	public static class CountingOutputStream extends OutputStream {
+		private OutputStream out;
+		private long count = 0;
+		
+		public CountingOutputStream(OutputStream out) {
+			this.out = out;
+		}
+		
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+		
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+		
+		public void flush() throws IOException {
+			out.flush();
+		}
+		
+		public void close() throws IOException {
+			out.close();
+		}
+		
+		public long getCount() {
+			return count;
+		}
+	}
+}
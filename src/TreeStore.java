@@ -0,0 +1,755 @@
+/*
+ * Program POMEGRANATE for cell lineage tree simulation and sampling
+ * by Victoria Popic (viq@stanford.edu) 2014-2015
+ *
+ * MIT License
+ *
+ * Copyright (c) 2014 Victoria Popic.
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+
+import java.awt.Color;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * Simulated cell lineage tree stored as a set of primitive arrays indexed by node id
+ * (struct-of-arrays layout), for trees with millions of nodes.
+ * A node takes ~26 bytes and no objects are allocated per node;
+ * node ids are assigned in creation order, so parents precede their descendants,
+ * and node v > 0 carries the mutation with id v-1.
+ * The growth and sampling stages consume the random streams of the tree
+ * in the same order as SimulatedTree, so both produce the same results for the same stream.
+ */
+public class TreeStore implements LineageTree<TreeStore.Sample> {
+
+	private static final int GERMLINE_ROOT = 0;
+	private static final int INITIAL_CAPACITY = 1024;
+	// node flags
+	private static final byte DEAD = 1;
+	private static final byte CNV = 2;
+	private static final byte HAPLOTYPE = 4; // set if the mutation is on haplotype 1
+
+	private int numNodes;
+	private int numDeadNodes;
+	/** Tree structure (0 marks a missing child/sibling, since the root is never a child) */
+	private int[] parent;
+	private int[] firstChild;
+	private int[] lastChild;
+	private int[] nextSibling;
+	/** Undead nodes in creation order (the growth frontier) */
+	private int[] liveNodes;
+	private int numLiveNodes;
+	/** Next event of each undead node (event-driven growth) */
+	private GrowthEventQueue events;
+	private int iteration = 0;
+	/** Number of cells in the population */
+	private int[] size;
+	private byte[] flags;
+	/** Mutation locus: chromosome and SNV position or CNV chromosome arm */
+	private byte[] chr;
+	private int[] position;
+
+	/** Node order used to select the sampled subclones (shuffled in place by each selection) */
+	private int[] samplingOrder;
+	/** Pre-order (Euler tour) subtree index: position range of each node's subtree and its number of cells */
+	private int[] preorder;
+	private int[] subtreeStart;
+	private int[] subtreeEnd;
+	private long[] subtreeCells;
+	/** Scratch buffer for lineage traversals */
+	private int[] lineage = new int[64];
+	/** Scratch buffer of the VAF computation: row + 1 of each SNV node reached, 0 if not reached (cleared after use) */
+	private int[] lineageRow = new int[0];
+
+	/** Random streams of the growth and sampling stages */
+	private RandomStream randGen;
+	private RandomStream samplingRandGen;
+	private BinomialSampler samplingBinomial;
+	private Parameters params;
+
+	/**
+	 * Creates an initial tree with the GL root node
+	 */
+	public TreeStore(Parameters simParams, RandomStream treeRandGen) {
+		params = simParams;
+		randGen = treeRandGen.split();
+		samplingRandGen = treeRandGen.split();
+		samplingBinomial = new BinomialSampler(samplingRandGen);
+		parent = new int[INITIAL_CAPACITY];
+		firstChild = new int[INITIAL_CAPACITY];
+		lastChild = new int[INITIAL_CAPACITY];
+		nextSibling = new int[INITIAL_CAPACITY];
+		size = new int[INITIAL_CAPACITY];
+		flags = new byte[INITIAL_CAPACITY];
+		chr = new byte[INITIAL_CAPACITY];
+		position = new int[INITIAL_CAPACITY];
+		parent[GERMLINE_ROOT] = -1;
+		numNodes = 1;
+		liveNodes = new int[INITIAL_CAPACITY];
+		liveNodes[0] = GERMLINE_ROOT;
+		numLiveNodes = 1;
+		numDeadNodes = 0;
+	}
+
+	/**
+	 * For each undead cell population node in the tree
+	 * create a descendant population or undergo death (except root)
+	 * with some probability.
+	 * Only the live nodes are visited; they are kept in creation order,
+	 * so the nodes are processed in the same order as in a scan of all the nodes
+	 */
+	public void grow() {
+		preorder = null;
+		if(params.EVENT_DRIVEN_GROWTH) {
+			growByEvents();
+			return;
+		}
+		int numParents = numLiveNodes; // populations created in this iteration divide starting with the next one
+		int numLive = 0;
+		for(int i = 0; i < numParents; i++) {
+			int v = liveNodes[i];
+
+			// population death
+			float death_roll = randGen.nextFloat();
+			if(death_roll < params.PROB_DEATH && v != GERMLINE_ROOT) {
+				flags[v] |= DEAD;
+				numDeadNodes++;
+				continue;
+			}
+			liveNodes[numLive++] = v; // compact the frontier in place
+
+			// division
+			float roll = randGen.nextFloat();
+			if(roll < params.PROB_SNV) {
+				addLiveNode(divide(v, false));
+			} else if(roll < (params.PROB_SNV + params.PROB_CNV)) {
+				addLiveNode(divide(v, true));
+			}
+		}
+		// move the new children next to the surviving nodes
+		System.arraycopy(liveNodes, numParents, liveNodes, numLive, numLiveNodes - numParents);
+		numLiveNodes -= numParents - numLive;
+	}
+
+	private void addLiveNode(int v) {
+		if(numLiveNodes == liveNodes.length) {
+			liveNodes = Arrays.copyOf(liveNodes, 2*liveNodes.length);
+		}
+		liveNodes[numLiveNodes++] = v;
+	}
+
+	/**
+	 * Event-driven growth iteration: only the nodes with an event
+	 * (death or division) scheduled for this iteration are visited
+	 */
+	private void growByEvents() {
+		if(events == null) {
+			events = new GrowthEventQueue(params, randGen);
+			events.schedule(GERMLINE_ROOT, iteration - 1, true);
+		}
+		for(int v = events.next(iteration); v != GrowthEventQueue.NONE; v = events.next(iteration)) {
+			int event = events.nextEventType(v == GERMLINE_ROOT);
+			if(event == GrowthEventQueue.DEATH) {
+				flags[v] |= DEAD;
+				numDeadNodes++;
+				continue;
+			}
+			int child = divide(v, event == GrowthEventQueue.CNV);
+			events.schedule(v, iteration, v == GERMLINE_ROOT);
+			events.schedule(child, iteration, false);
+		}
+		iteration++;
+	}
+
+	/**
+	 * Creates a descendant population of node v that acquired a new SNV or CNV
+	 * @return the id of the new node
+	 */
+	private int divide(int v, boolean isCNV) {
+		if(!isCNV) {
+			return addChild(v, false, isCNV(v) && params.UP_CNV_EFFECT);
+		}
+		return addChild(v, true, !(isCNV(v) || v == GERMLINE_ROOT || !params.UP_CNV_EFFECT));
+	}
+
+	/**
+	 * Appends a descendant population of node p that acquired a new mutation;
+	 * with parentArm = true the mutation is placed on the chromosome arm of the mutation of p.
+	 * The mutation locus is drawn in the same order as by the Mutation constructors.
+	 */
+	private int addChild(int p, boolean isCNV, boolean parentArm) {
+		int mutationChr = randGen.nextInt(Mutation.NUM_CHROMOSOMES);
+		int haplotype = randGen.nextInt(2);
+		if(parentArm) {
+			mutationChr = chr[p];
+		}
+		int locus;
+		if(isCNV) {
+			locus = parentArm ? getArm(p) : randGen.nextInt(2);
+		} else {
+			int length = Mutation.CHROMOSOME_LENGTHS[mutationChr];
+			if(parentArm) {
+				locus = randGen.nextInt(length/2);
+				if(position[p] == 1) {
+					locus += length/2;
+				}
+			} else {
+				locus = randGen.nextInt(length);
+			}
+		}
+
+		ensureCapacity(numNodes + 1);
+		int v = numNodes++;
+		parent[v] = p;
+		flags[v] = (byte) ((isCNV ? CNV : 0) | (haplotype == 1 ? HAPLOTYPE : 0));
+		chr[v] = (byte) mutationChr;
+		position[v] = locus;
+		size[v] = randGen.nextInt(params.MAX_POPULATION_SIZE);
+		if(firstChild[p] == 0) {
+			firstChild[p] = v;
+		} else {
+			nextSibling[lastChild[p]] = v;
+		}
+		lastChild[p] = v;
+		return v;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if(capacity <= parent.length) return;
+		int newCapacity = Math.max(capacity, 2*parent.length);
+		parent = Arrays.copyOf(parent, newCapacity);
+		firstChild = Arrays.copyOf(firstChild, newCapacity);
+		lastChild = Arrays.copyOf(lastChild, newCapacity);
+		nextSibling = Arrays.copyOf(nextSibling, newCapacity);
+		size = Arrays.copyOf(size, newCapacity);
+		flags = Arrays.copyOf(flags, newCapacity);
+		chr = Arrays.copyOf(chr, newCapacity);
+		position = Arrays.copyOf(position, newCapacity);
+	}
+
+	public int getNumNodes() {
+		return numNodes;
+	}
+
+	public int getNumDeadNodes() {
+		return numDeadNodes;
+	}
+
+	/**
+	 * Returns the number of undead nodes, including the GL root
+	 */
+	public int getNumLiveNodes() {
+		return numNodes - numDeadNodes;
+	}
+
+	public boolean isDead(int v) {
+		return (flags[v] & DEAD) != 0;
+	}
+
+	public boolean isCNV(int v) {
+		return (flags[v] & CNV) != 0;
+	}
+
+	private int getHaplotype(int v) {
+		return (flags[v] & HAPLOTYPE) != 0 ? 1 : 0;
+	}
+
+	/**
+	 * Returns the chromosome arm of the mutation locus of node v
+	 */
+	private int getArm(int v) {
+		if(isCNV(v)) {
+			return position[v];
+		}
+		return (position[v] <= Mutation.CHROMOSOME_LENGTHS[chr[v]]/2) ? 0 : 1;
+	}
+
+	/**
+	 * Returns the SNV acquired by node v
+	 */
+	public Mutation.SNV getSNV(int v) {
+		return new Mutation.SNV(v-1, chr[v], getHaplotype(v), position[v]);
+	}
+
+	private void appendName(Appendable out, int v) throws IOException {
+		if(isCNV(v)) {
+			out.append("CNV_");
+		}
+		out.append('M').append(Integer.toString(v-1));
+	}
+
+	/**
+	 * Appends the names of the SNVs acquired on the lineage of node v, ordered from the GL root
+	 */
+	public void appendSNVNames(StringBuilder sb, int v) {
+		int depth = 0;
+		for(int u = v; u != GERMLINE_ROOT; u = parent[u]) {
+			depth++;
+		}
+		if(lineage.length < depth) {
+			lineage = new int[2*depth];
+		}
+		for(int u = v, i = depth; u != GERMLINE_ROOT; u = parent[u]) {
+			lineage[--i] = u;
+		}
+		for(int i = 0; i < depth; i++) {
+			if(isCNV(lineage[i])) continue;
+			sb.append("\tM").append(lineage[i]-1);
+		}
+	}
+
+	// ---- Sampling ----
+
+	/**
+	 * Randomly pick a subset of undead nodes from the range [from, to) of the given node order
+	 * (the range is shuffled in place with the same swaps as Collections.shuffle)
+	 */
+	private int[] selectSubclones(int[] order, int from, int to, int maxSubclones) {
+		for(int i = to - from; i > 1; i--) {
+			int j = from + samplingRandGen.nextInt(i);
+			int tmp = order[from+i-1];
+			order[from+i-1] = order[j];
+			order[j] = tmp;
+		}
+		int numSubclonesToSample = 1 + (maxSubclones > 1 ? samplingRandGen.nextInt(maxSubclones-1) : 0);
+		int[] subclones = new int[numSubclonesToSample];
+		int numSubclones = 0;
+		for(int i = from; i < to && numSubclones < numSubclonesToSample; i++) {
+			int v = order[i];
+			if(isDead(v) || v == GERMLINE_ROOT) continue;
+			subclones[numSubclones++] = v;
+		}
+		return Arrays.copyOf(subclones, numSubclones);
+	}
+	
+	/**
+	 * Extract a sample using randomized sampling
+	 */
+	public Sample getSample() {
+		if(samplingOrder == null) {
+			samplingOrder = new int[numNodes];
+			for(int v = 0; v < numNodes; v++) {
+				samplingOrder[v] = v;
+			}
+		}
+		int[] subclones = selectSubclones(samplingOrder, 0, numNodes, params.MAX_NUM_SUBCLONES);
+		return createSample(subclones, params.NUM_CELLS_PER_SAMPLE, getNormalContamination());
+	}
+
+	private Sample createSample(int[] subclones, int numCellsInSample, int numNormalCells) {
+		Sample sample = new Sample(subclones, samplingRandGen);
+		sample.numNormalCells = numNormalCells;
+		long totalCellCount = 0;
+		for(int subclone : subclones) {
+			totalCellCount += size[subclone];
+		}
+		// simulate a multinomial distribution with probabilities proportional to the subclone sizes
+		// as a sequence of binomials conditioned on the cells remaining after the previous subclones
+		int remainingCells = numCellsInSample - numNormalCells;
+		long remainingCellCount = totalCellCount;
+		for(int i = 0; i < subclones.length && remainingCells > 0; i++) {
+			int subcloneSize = size[subclones[i]];
+			int numCells;
+			if(remainingCellCount <= subcloneSize) { // no cells left in the remaining subclones
+				numCells = remainingCells;
+			} else {
+				numCells = samplingBinomial.sample(remainingCells, (double) subcloneSize/remainingCellCount);
+			}
+			sample.addCells(subclones[i], numCells);
+			remainingCells -= numCells;
+			remainingCellCount -= subcloneSize;
+		}
+		return sample;
+	}
+
+	/**
+	 * Builds the pre-order (Euler tour) index of the tree after growth:
+	 * the nodes of each subtree occupy a contiguous range of the pre-order,
+	 * and the number of cells in each subtree is accumulated bottom-up
+	 */
+	private void indexSubtrees() {
+		subtreeCells = new long[numNodes];
+		int[] numSubtreeNodes = new int[numNodes];
+		for(int v = numNodes-1; v >= 0; v--) {
+			numSubtreeNodes[v]++;
+			subtreeCells[v] += isDead(v) ? 0 : size[v];
+			if(v != GERMLINE_ROOT) {
+				numSubtreeNodes[parent[v]] += numSubtreeNodes[v];
+				subtreeCells[parent[v]] += subtreeCells[v];
+			}
+		}
+		// a node's first child directly follows it in the pre-order,
+		// and each next sibling follows the subtree of the previous one
+		preorder = new int[numNodes];
+		subtreeStart = new int[numNodes];
+		for(int v = 0; v < numNodes; v++) {
+			int pos = subtreeStart[v];
+			preorder[pos] = v;
+			for(int c = firstChild[v]; c != 0; c = nextSibling[c]) {
+				subtreeStart[c] = ++pos;
+				pos += numSubtreeNodes[c] - 1;
+			}
+		}
+		subtreeEnd = new int[numNodes];
+		for(int v = 0; v < numNodes; v++) {
+			subtreeEnd[v] = subtreeStart[v] + numSubtreeNodes[v];
+		}
+	}
+	
+	/**
+	 * Returns k localized samples from the tree
+	 * by sampling from k disjoint subtrees.
+	 * If the tree does not contain k disjoint subtrees,
+	 * sampling will be done from the maximum number of disjoint 
+	 * subtrees, with the minimum number of samples overlapping;
+	 * no samples are returned if no population below the root has cells
+	 * (same selection as SimulatedTree)
+	 */
+	public ArrayList<Sample> getKLocalizedSamples(int k) {
+		if(preorder == null) {
+			indexSubtrees();
+		}
+		ArrayList<Sample> samples = new ArrayList<Sample>();
+		if(k <= 0) {
+			return samples;
+		}
+		
+		// queue of disjoint subtree roots (initially undead subtree children of GL root)
+		ArrayList<Integer> subtreeRoots = new ArrayList<Integer>();
+		for(int c = firstChild[GERMLINE_ROOT]; c != 0; c = nextSibling[c]) {
+			if(subtreeCells[c] > 0) {
+				subtreeRoots.add(c);
+			}
+		}
+		if(subtreeRoots.size() == 0) { // no populations with cells to sample from
+			return samples;
+		}
+		while(subtreeRoots.size() < k) {
+			ArrayList<Integer> children = new ArrayList<Integer>();
+			int parentIdx = 0;
+			for(int i = 0; i < subtreeRoots.size(); i++) {
+				for(int c = firstChild[subtreeRoots.get(i)]; c != 0; c = nextSibling[c]) {
+					if(subtreeCells[c] > 0) {
+						children.add(c);
+					}
+				}
+				if(children.size() > 0) {
+					parentIdx = i;
+					break;
+				}
+			}
+			if(children.size() == 0) { // no nodes in the queue have children
+				break;
+			}
+			subtreeRoots.remove(parentIdx);
+			subtreeRoots.addAll(0, children);
+		}
+		
+		Collections.sort(subtreeRoots, new Comparator<Integer>() {
+			public int compare(Integer o1, Integer o2) {
+				return subtreeCells[o1] < subtreeCells[o2] ? 1 : subtreeCells[o1] > subtreeCells[o2] ? -1 : 0;
+			}
+		});
+		
+		// the subtrees are slices of a working copy of the pre-order
+		// (the subclone selection shuffles each slice in place)
+		int[] order = preorder.clone();
+		for(int i = 0; i < k; i++) {
+			int root = subtreeRoots.get(i % subtreeRoots.size());
+			int[] subclones = selectSubclones(order, subtreeStart[root], subtreeEnd[root], params.MAX_NUM_SUBCLONES);
+			
+			// add a subclone from a neighboring subtree
+			if(params.MIX_NBR_SUBTREE_SUBCLONE) {
+				int nbr = subtreeRoots.get(((i > 0) ? i-1 : k-1) % subtreeRoots.size());
+				int[] nbrSubclone = selectSubclones(order, subtreeStart[nbr], subtreeEnd[nbr], 1);
+				subclones = Arrays.copyOf(subclones, subclones.length + nbrSubclone.length);
+				System.arraycopy(nbrSubclone, 0, subclones, subclones.length - nbrSubclone.length, nbrSubclone.length);
+			}
+			samples.add(createSample(subclones, params.NUM_CELLS_PER_SAMPLE, getNormalContamination()));
+		}
+		return samples;
+	}
+	
+	/**
+	 * Generates a random contamination percentage
+	 * based on the provided contamination thresholds
+	 */
+	private int getNormalContamination() {
+		double percentNormal = params.MIN_PERCENT_NORMAL_CONTAMINATION;
+		if(params.MAX_PERCENT_NORMAL_CONTAMINATION > params.MIN_PERCENT_NORMAL_CONTAMINATION) {
+			percentNormal += samplingRandGen.nextDouble()*(params.MAX_PERCENT_NORMAL_CONTAMINATION - params.MIN_PERCENT_NORMAL_CONTAMINATION);
+		}
+		int numNormalCells = (int) (percentNormal*params.NUM_CELLS_PER_SAMPLE/100.0);
+		return numNormalCells;
+	}
+
+	/**
+	 * Computes the VAF of every sampled SNV in each of the given samples
+	 * (column 0 corresponds to the normal sample).
+	 * Only the lineages of the sampled populations are traversed: walking up from a sampled population,
+	 * each SNV gets one variant copy per sampled cell plus one per CNV below it on the lineage
+	 * duplicating its arm and haplotype, and each CNV adds one copy of its arm per sampled cell.
+	 */
+	public VAFMatrix getSNVFrequencies(ArrayList<Sample> samples) {
+		int numSamples = samples.size() + 1;
+		int numArms = 2*Mutation.CHROMOSOME_LENGTHS.length;
+		// the SNVs on the sampled lineages get consecutive rows of varCopies in the order they are reached
+		if(lineageRow.length < numNodes) {
+			lineageRow = new int[numNodes];
+		}
+		int[] rowNodes = new int[16];
+		long[] varCopies = new long[rowNodes.length*numSamples];
+		int numRows = 0;
+		long[] armCopies = new long[numArms*numSamples];
+		long[] numCells = new long[numSamples];
+		int[] lineageCNVs = new int[2*numArms]; // CNVs seen on the lineage walk per arm and haplotype
+		for(int k = 1; k < numSamples; k++) {
+			Sample sample = samples.get(k-1);
+			numCells[k] = sample.numNormalCells;
+			for(Map.Entry<Integer, Integer> count : sample.cellPopulationCounts.entrySet()) {
+				long n = count.getValue();
+				numCells[k] += n;
+				Arrays.fill(lineageCNVs, 0);
+				for(int u = count.getKey(); u != GERMLINE_ROOT; u = parent[u]) {
+					int arm = 2*chr[u] + getArm(u);
+					int haplotypeArm = 2*arm + getHaplotype(u);
+					if(isCNV(u)) {
+						lineageCNVs[haplotypeArm]++;
+						armCopies[arm*numSamples + k] += n;
+						continue;
+					}
+					if(lineageRow[u] == 0) {
+						if(numRows == rowNodes.length) {
+							rowNodes = Arrays.copyOf(rowNodes, 2*numRows);
+							varCopies = Arrays.copyOf(varCopies, 2*numRows*numSamples);
+						}
+						rowNodes[numRows] = u;
+						lineageRow[u] = ++numRows;
+					}
+					varCopies[(lineageRow[u]-1)*numSamples + k] += n*(1 + lineageCNVs[haplotypeArm]);
+				}
+			}
+		}
+
+		// rows are listed in SNV id order
+		int[] snvNodes = Arrays.copyOf(rowNodes, numRows);
+		Arrays.sort(snvNodes);
+		Mutation.SNV[] snvs = new Mutation.SNV[numRows];
+		for(int i = 0; i < numRows; i++) {
+			snvs[i] = getSNV(snvNodes[i]);
+		}
+		VAFMatrix freq = new VAFMatrix(snvs, numSamples);
+		int[] numCNVAffectedSNVs = new int[numSamples];
+		for(int i = 0; i < numRows; i++) {
+			int v = snvNodes[i];
+			int row = lineageRow[v]-1;
+			int arm = 2*chr[v] + getArm(v);
+			for(int k = 1; k < numSamples; k++) {
+				long copies = varCopies[row*numSamples + k];
+				if(copies == 0) continue;
+				long extraCopies = armCopies[arm*numSamples + k];
+				freq.set(i, k, (double) copies/(2*numCells[k] + extraCopies));
+				if(extraCopies > 0) {
+					numCNVAffectedSNVs[k]++;
+				}
+			}
+		}
+		for(int k = 1; k < numSamples; k++) {
+			samples.get(k-1).numCNVAffectedSNVs = numCNVAffectedSNVs[k];
+		}
+		for(int i = 0; i < numRows; i++) {
+			lineageRow[rowNodes[i]] = 0;
+		}
+		return freq;
+	}
+
+	// ---- Output ----
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		try {
+			writeTree(sb);
+		} catch (IOException e) {
+			// not thrown by StringBuilder
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Writes the tree edges followed by the mutation of each node
+	 * (same format as SimulatedTree)
+	 */
+	public void writeTree(Appendable out) throws IOException {
+		// the children of a node are listed together when its first child is reached,
+		// i.e. in the order in which the parents first divided
+		for(int v = 1; v < numNodes; v++) {
+			int p = parent[v];
+			if(firstChild[p] != v) continue;
+			for(int c = v; c != 0; c = nextSibling[c]) {
+				if(p == GERMLINE_ROOT) {
+					out.append("GL");
+				} else {
+					appendName(out, p);
+				}
+				out.append('\t');
+				appendName(out, c);
+				out.append('\n');
+			}
+		}
+
+		out.append("null\n"); // GL root has no mutation
+		for(int v = 1; v < numNodes; v++) {
+			appendName(out, v);
+			out.append(": chr=").append(Integer.toString(chr[v] + 1));
+			out.append(isCNV(v) ? ", arm=" : ", pos=").append(Integer.toString(position[v]));
+			out.append(", haplotype=").append(Integer.toString(getHaplotype(v))).append('\n');
+		}
+	}
+
+	/**
+	 * Writes the tree in DOT format
+	 */
+	public void writeDOT(Appendable out) throws IOException {
+		DOTWriter dot = new DOTWriter(out, params.MAX_POPULATION_SIZE);
+		dot.begin(false);
+		writeDOTEdges(dot);
+		StringBuilder name = new StringBuilder();
+		for(int v = 0; v < numNodes; v++) {
+			writeDOTNode(dot, v, name, null);
+		}
+		dot.end();
+	}
+
+	/**
+	 * Writes the tree in DOT format, indicating the populations included in each sample
+	 */
+	public void writeColoredDOT(Appendable out, ArrayList<Sample> samples) throws IOException {
+		HashMap<Integer, ArrayList<Color>> nodeColors = new HashMap<Integer, ArrayList<Color>>();
+		ArrayList<Color> sampleColors = new ArrayList<Color>();
+		for(Sample sample : samples) {
+			for(int subclone : sample.subclones) {
+				ArrayList<Color> colors = nodeColors.get(subclone);
+				if(colors == null) {
+					colors = new ArrayList<Color>();
+					nodeColors.put(subclone, colors);
+				}
+				colors.add(sample.color);
+			}
+			sampleColors.add(sample.color);
+		}
+
+		DOTWriter dot = new DOTWriter(out, params.MAX_POPULATION_SIZE);
+		dot.begin(true);
+		writeDOTEdges(dot);
+		// nodes are listed in the current sampling order (as SimulatedTree lists its shuffled node list)
+		StringBuilder name = new StringBuilder();
+		for(int i = 0; i < numNodes; i++) {
+			int v = (samplingOrder != null) ? samplingOrder[i] : i;
+			writeDOTNode(dot, v, name, nodeColors.get(v));
+		}
+		dot.legend(sampleColors);
+		dot.end();
+	}
+
+	/**
+	 * Writes the SNVs of each distinct subclone of the given samples, one row per subclone
+	 */
+	public void writeSubclones(LineageSimulator.RowWriter out, ArrayList<Sample> samples) throws IOException {
+		HashSet<Integer> subclones = new HashSet<Integer>();
+		for(Sample sample : samples) {
+			subclones.addAll(sample.cellPopulationCounts.keySet());
+		}
+		for(int c : subclones) {
+			StringBuilder row = out.row();
+			appendSNVNames(row, c);
+			if(row.length() > 0) {
+				out.writeRow();
+			}
+		}
+	}
+
+	private void writeDOTEdges(DOTWriter dot) throws IOException {
+		for(int v = 1; v < numNodes; v++) {
+			int p = parent[v];
+			if(firstChild[p] != v) continue;
+			for(int c = v; c != 0; c = nextSibling[c]) {
+				dot.edge(p, c);
+			}
+		}
+	}
+
+	private void writeDOTNode(DOTWriter dot, int v, StringBuilder name, ArrayList<Color> colors) throws IOException {
+		if(v == GERMLINE_ROOT) {
+			dot.germlineNode(v);
+			return;
+		}
+		name.setLength(0);
+		appendName(name, v);
+		dot.node(v, name, size[v], isCNV(v), isDead(v), colors);
+	}
+
+	/**
+	 * Tumor sample collected from a TreeStore, with cell counts keyed by node id
+	 */
+	public static class Sample implements LineageTree.Sample {
+		protected HashMap<Integer, Integer> cellPopulationCounts;
+		/** Selected subclones (including the ones that received no cells) */
+		protected int[] subclones;
+		protected int numNormalCells; // normal contamination
+		protected int numCNVAffectedSNVs;
+		protected Color color;
+
+		public Sample(int[] selectedSubclones, RandomStream r) {
+			subclones = selectedSubclones;
+			numNormalCells = 0;
+			cellPopulationCounts = new HashMap<Integer, Integer>();
+			color = new Color(r.nextFloat(), r.nextFloat(), r.nextFloat());
+		}
+
+		public void addCells(int node, int numCells) {
+			if(numCells <= 0) return;
+			Integer count = cellPopulationCounts.get(node);
+			cellPopulationCounts.put(node, (count != null) ? count + numCells : numCells);
+		}
+
+		/**
+		 * Returns the number of cells in the sample (including the normal cells)
+		 */
+		public long getNumCells() {
+			long numCells = numNormalCells;
+			for(int count : cellPopulationCounts.values()) {
+				numCells += count;
+			}
+			return numCells;
+		}
+
+		public int getNumCNVAffectedSNVs() {
+			return numCNVAffectedSNVs;
+		}
+	}
+}
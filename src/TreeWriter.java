@@ -0,0 +1,256 @@
+/*
+ * Program POMEGRANATE for cell lineage tree simulation and sampling
+ * by Victoria Popic (viq@stanford.edu) 2014-2015
+ *
+ * MIT License
+ *
+ * Copyright (c) 2014 Victoria Popic.
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Write-behind persistence of the simulated trees.
+ * The simulation threads write the output files of a tree to an in-memory result,
+ * which is handed over to dedicated writer threads through a bounded queue once the tree is complete;
+ * when the writers fall behind, the hand-off blocks the simulation (back-pressure).
+ * A write failure stops the persistence of further trees and is reported to the submitting threads;
+ * the ids of the trees whose files were all written (closed, not forced to disk) are kept for the run report.
+ */
+public abstract class TreeWriter {
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final TreeResult END = new TreeResult(-1);
+	
+	private BlockingQueue<TreeResult> queue;
+	private Thread[] writers;
+	private volatile IOException failure;
+	private int failedTree = -1;
+	private TreeSet<Integer> writtenTrees = new TreeSet<Integer>();
+	private AtomicLong writtenBytes = new AtomicLong();
+	// wall time span of the writes (the writes of several writer threads overlap)
+	private long firstStart = -1;
+	private long lastEnd = -1;
+	
+	/**
+	 * @param numWriters number of writer threads
+	 * @param queueCapacity max number of completed trees waiting to be written
+	 */
+	public TreeWriter(int numWriters, int queueCapacity) {
+		queue = new ArrayBlockingQueue<TreeResult>(queueCapacity);
+		writers = new Thread[numWriters];
+		for(int i = 0; i < numWriters; i++) {
+			writers[i] = new Thread(new Runnable() {
+				public void run() {
+					drain();
+				}
+			}, "writer-" + i);
+			writers[i].setDaemon(true);
+			writers[i].start();
+		}
+	}
+	
+	/**
+	 * Returns the destination of the output files of the given tree
+	 */
+	protected abstract TreeOutput getDestination(int treeId) throws IOException;
+	
+	/**
+	 * Returns a new in-memory output for the files of the given tree
+	 */
+	public TreeResult newTreeResult(int treeId) {
+		return new TreeResult(treeId);
+	}
+	
+	/**
+	 * Queues the completed tree for writing; blocks while the queue is full
+	 * @throws IOException if the writers have failed (the tree will not be written)
+	 */
+	public void submit(TreeResult result) throws IOException, InterruptedException {
+		checkFailure();
+		queue.put(result);
+	}
+	
+	/**
+	 * Writes the queued trees and stops the writer threads
+	 */
+	public void close() throws InterruptedException {
+		for(int i = 0; i < writers.length; i++) {
+			queue.put(END);
+		}
+		for(Thread writer : writers) {
+			writer.join();
+		}
+	}
+	
+	/**
+	 * Returns the first write failure or null if all the submitted trees were written
+	 */
+	public IOException getFailure() {
+		return failure;
+	}
+	
+	/**
+	 * Returns the id of the tree whose output could not be written (or -1)
+	 */
+	public synchronized int getFailedTree() {
+		return failedTree;
+	}
+	
+	/**
+	 * Returns the ids of the trees whose output files were all written
+	 * (handed to the file system and closed; the files are not synced)
+	 */
+	public synchronized SortedSet<Integer> getWrittenTrees() {
+		return new TreeSet<Integer>(writtenTrees);
+	}
+	
+	/**
+	 * Total size of the files handed to the destinations
+	 */
+	public long getWrittenBytes() {
+		return writtenBytes.get();
+	}
+	
+	/**
+	 * Wall time from the start of the first tree write to the end of the last one (in seconds)
+	 */
+	public synchronized double getWallSeconds() {
+		return (firstStart >= 0) ? (lastEnd - firstStart) / 1e9 : 0;
+	}
+	
+	private synchronized void addInterval(long start, long end) {
+		if(firstStart < 0 || start < firstStart) {
+			firstStart = start;
+		}
+		lastEnd = Math.max(lastEnd, end);
+	}
+	
+	private void checkFailure() throws IOException {
+		if(failure != null) {
+			throw new IOException("The output writer failed on tree " + getFailedTree(), failure);
+		}
+	}
+	
+	private void drain() {
+		while(true) {
+			TreeResult result;
+			try {
+				result = queue.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			if(result == END) return;
+			if(failure != null) continue; // the remaining trees are discarded
+			long start = System.nanoTime();
+			try {
+				TreeOutput output = getDestination(result.treeId);
+				for(int i = 0; i < result.files.size(); i++) {
+					ByteArrayOutputStream data = result.files.get(i);
+					OutputStream out = output.open(result.fileNames.get(i));
+					try {
+						data.writeTo(out);
+					} finally {
+						out.close();
+					}
+					writtenBytes.addAndGet(data.size());
+				}
+				synchronized(this) {
+					writtenTrees.add(result.treeId);
+				}
+			} catch (IOException e) {
+				fail(result.treeId, e);
+			} catch (RuntimeException e) {
+				fail(result.treeId, new IOException(e));
+			}
+			addInterval(start, System.nanoTime());
+		}
+	}
+	
+	private synchronized void fail(int treeId, IOException e) {
+		if(failure == null) {
+			failedTree = treeId;
+			failure = e;
+		}
+	}
+	
+	/**
+	 * Formats a set of tree ids as ranges, e.g. 0-4, 7, 9-10
+	 */
+	public static String toRanges(SortedSet<Integer> ids) {
+		StringBuilder ranges = new StringBuilder();
+		int first = -1;
+		int last = -1;
+		for(int id : ids) {
+			if(first >= 0 && id == last + 1) {
+				last = id;
+				continue;
+			}
+			appendRange(ranges, first, last);
+			first = last = id;
+		}
+		appendRange(ranges, first, last);
+		return ranges.toString();
+	}
+	
+	private static void appendRange(StringBuilder ranges, int first, int last) {
+		if(first < 0) return;
+		if(ranges.length() > 0) {
+			ranges.append(", ");
+		}
+		ranges.append(first);
+		if(last > first) {
+			ranges.append('-').append(last);
+		}
+	}
+	
+	/**
+	 * In-memory output files of a simulated tree
+	 */
+	public static class TreeResult extends TreeOutput {
+		private int treeId;
+		private ArrayList<String> fileNames = new ArrayList<String>();
+		private ArrayList<ByteArrayOutputStream> files = new ArrayList<ByteArrayOutputStream>();
+		
+		public TreeResult(int treeId) {
+			this.treeId = treeId;
+		}
+		
+		public OutputStream open(String fileName) {
+			ByteArrayOutputStream file = new ByteArrayOutputStream(BUFFER_SIZE);
+			fileNames.add(fileName);
+			files.add(file);
+			return file;
+		}
+		
+		public String getLocation() {
+			return "tree_" + treeId + " (pending write)";
+		}
+	}
+}
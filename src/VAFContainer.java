@@ -0,0 +1,275 @@
+/*
+ * Program POMEGRANATE for cell lineage tree simulation and sampling
+ * by Victoria Popic (viq@stanford.edu) 2014-2015
+ *
+ * MIT License
+ *
+ * Copyright (c) 2014 Victoria Popic.
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+/**
+ * Binary columnar container of the VAFs of a set of samples
+ * (alternative to the VAF text files, for direct loading by downstream tools).
+ * A container holds the SNV rows of one sample set: int chromosome and position columns,
+ * a name column (offsets into the UTF-8 name bytes; SNV names are unique within a tree,
+ * so they are stored as is), and one VAF matrix per coverage (true VAFs first, coverage 0),
+ * stored column by column (one contiguous double column per sample, column 0 is the normal sample).
+ * The reader memory-maps the file and exposes the columns as buffer views without copying.
+ *
+ * Layout (little-endian, sections aligned to 8 bytes):
+ * <pre>
+ * magic "PVAF", int version
+ * int numRows, int numSamples, int numMatrices
+ * int[numMatrices] coverages
+ * int[numRows] chromosomes (1-based), int[numRows] positions
+ * int[numRows+1] name offsets, UTF-8 name bytes
+ * double[numMatrices][numSamples][numRows] VAFs
+ * </pre>
+ */
+public class VAFContainer {
+	private static final int MAGIC = 0x46415650; // "PVAF"
+	private static final int VERSION = 2;
+	private static final int HEADER_SIZE = 20;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	private ByteBuffer data;
+	private int numRows;
+	private int numSamples;
+	private int[] coverages;
+	private int chromosomesOffset;
+	private int positionsOffset;
+	private int nameOffsetsOffset;
+	private int nameBytesOffset;
+	private int vafsOffset;
+	
+	/**
+	 * Memory-maps the given container file
+	 */
+	public VAFContainer(String fileName) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			data = buffer.order(ByteOrder.LITTLE_ENDIAN);
+		} finally {
+			file.close(); // the mapping remains valid
+		}
+		if(data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+			throw new IOException("Not a VAF container (version " + VERSION + "): " + fileName);
+		}
+		numRows = data.getInt(8);
+		numSamples = data.getInt(12);
+		int numMatrices = data.getInt(16);
+		coverages = new int[numMatrices];
+		for(int i = 0; i < numMatrices; i++) {
+			coverages[i] = data.getInt(HEADER_SIZE + 4*i);
+		}
+		chromosomesOffset = align(HEADER_SIZE + 4*numMatrices);
+		positionsOffset = chromosomesOffset + 4*numRows;
+		nameOffsetsOffset = positionsOffset + 4*numRows;
+		nameBytesOffset = nameOffsetsOffset + 4*(numRows + 1);
+		vafsOffset = align(nameBytesOffset + data.getInt(nameOffsetsOffset + 4*numRows));
+	}
+	
+	public int getNumRows() {
+		return numRows;
+	}
+	
+	/**
+	 * Returns the number of samples, including the normal sample (column 0)
+	 */
+	public int getNumSamples() {
+		return numSamples;
+	}
+	
+	/**
+	 * Returns the coverage of each VAF matrix (0 for the true VAFs)
+	 */
+	public int[] getCoverages() {
+		return coverages.clone();
+	}
+	
+	/**
+	 * Returns the index of the VAF matrix of the given coverage (0 for the true VAFs), or -1
+	 */
+	public int getMatrix(int coverage) {
+		for(int i = 0; i < coverages.length; i++) {
+			if(coverages[i] == coverage) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	/** Chromosome (1-based) of each row */
+	public IntBuffer getChromosomes() {
+		return slice(chromosomesOffset, 4*numRows).asIntBuffer();
+	}
+	
+	/** Position of each row */
+	public IntBuffer getPositions() {
+		return slice(positionsOffset, 4*numRows).asIntBuffer();
+	}
+	
+	/**
+	 * Returns the SNV name of the given row
+	 */
+	public String getName(int row) {
+		int start = data.getInt(nameOffsetsOffset + 4*row);
+		int end = data.getInt(nameOffsetsOffset + 4*(row + 1));
+		byte[] bytes = new byte[end - start];
+		for(int i = 0; i < bytes.length; i++) {
+			bytes[i] = data.get(nameBytesOffset + start + i);
+		}
+		return new String(bytes, UTF8);
+	}
+	
+	/**
+	 * Returns the VAFs of all the rows in the given sample of the given matrix
+	 */
+	public DoubleBuffer getVAFs(int matrix, int sample) {
+		return slice(vafsOffset + 8*(matrix*numSamples + sample)*numRows, 8*numRows).asDoubleBuffer();
+	}
+	
+	public double getVAF(int matrix, int sample, int row) {
+		return data.getDouble(vafsOffset + 8*((matrix*numSamples + sample)*numRows + row));
+	}
+	
+	private ByteBuffer slice(int offset, int length) {
+		ByteBuffer view = data.duplicate();
+		view.position(offset);
+		view.limit(offset + length);
+		return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+	
+	private static int align(int offset) {
+		return (offset + 7) & ~7;
+	}
+	
+	/**
+	 * Writes the true VAFs (in row order, as the text files)
+	 * and the simulated coverage VAFs (with the same rows) to the given stream
+	 * @param coverages coverage of each matrix after the true VAFs
+	 */
+	public static void write(OutputStream out, VAFMatrix trueVAFs, 
+			ArrayList<VAFMatrix> coverageVAFs, int[] coverages) throws IOException {
+		int numRows = trueVAFs.getNumRows();
+		int numSamples = trueVAFs.getNumSamples();
+		int numMatrices = 1 + coverageVAFs.size();
+		byte[][] names = new byte[numRows][];
+		int numNameBytes = 0;
+		for(int i = 0; i < numRows; i++) {
+			names[i] = trueVAFs.getSNV(i).getName().getBytes(UTF8);
+			numNameBytes += names[i].length;
+		}
+		int chromosomesOffset = align(HEADER_SIZE + 4*numMatrices);
+		int nameOffsetsOffset = chromosomesOffset + 8*numRows;
+		int nameBytesOffset = nameOffsetsOffset + 4*(numRows + 1);
+		int vafsOffset = align(nameBytesOffset + numNameBytes);
+		long size = vafsOffset + 8L*numMatrices*numSamples*numRows;
+		if(size > Integer.MAX_VALUE) {
+			throw new IOException("VAF container exceeds 2GB: " + numRows + " rows x " + numSamples + " samples");
+		}
+		
+		ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(numRows).putInt(numSamples).putInt(numMatrices);
+		buffer.putInt(0);
+		for(int i = 0; i < coverageVAFs.size(); i++) {
+			buffer.putInt(coverages[i]);
+		}
+		buffer.position(chromosomesOffset);
+		for(int i = 0; i < numRows; i++) {
+			buffer.putInt(trueVAFs.getSNV(i).chr + 1);
+		}
+		for(int i = 0; i < numRows; i++) {
+			buffer.putInt(trueVAFs.getSNV(i).position);
+		}
+		int nameOffset = 0;
+		for(int i = 0; i < numRows; i++) {
+			buffer.putInt(nameOffset);
+			nameOffset += names[i].length;
+		}
+		buffer.putInt(nameOffset);
+		for(int i = 0; i < numRows; i++) {
+			buffer.put(names[i]);
+		}
+		buffer.position(vafsOffset);
+		for(int m = 0; m < numMatrices; m++) {
+			VAFMatrix vafs = (m == 0) ? trueVAFs : coverageVAFs.get(m-1);
+			for(int k = 0; k < numSamples; k++) {
+				for(int i = 0; i < numRows; i++) {
+					buffer.putDouble(vafs.get(i, k));
+				}
+			}
+		}
+		buffer.flip();
+		
+		out.write(buffer.array(), 0, buffer.limit());
+	}
+	
+	/**
+	 * Prints a VAF matrix of a container in the VAF text file format
+	 * usage: VAFContainer file [coverage] (default: true VAFs)
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 1) {
+			System.err.println("Usage: VAFContainer <file> [coverage]");
+			System.exit(-1);
+		}
+		VAFContainer vafs = new VAFContainer(args[0]);
+		int matrix = vafs.getMatrix(args.length > 1 ? Integer.parseInt(args[1]) : 0);
+		if(matrix < 0) {
+			System.err.println("No VAFs for the given coverage in: " + args[0]);
+			System.exit(-1);
+		}
+		StringBuilder row = new StringBuilder();
+		row.append("#chrom\tpos\tdesc\tnormal");
+		for(int i = 1; i < vafs.getNumSamples(); i++) {
+			row.append("\tsample").append(i);
+		}
+		System.out.println(row);
+		FixedDecimalFormat df = new FixedDecimalFormat(4);
+		IntBuffer chromosomes = vafs.getChromosomes();
+		IntBuffer positions = vafs.getPositions();
+		for(int r = 0; r < vafs.getNumRows(); r++) {
+			row.setLength(0);
+			row.append(chromosomes.get(r)).append('\t').append(positions.get(r)).append('\t').append(vafs.getName(r));
+			for(int k = 0; k < vafs.getNumSamples(); k++) {
+				row.append('\t');
+				df.format(vafs.getVAF(matrix, k, r), row);
+			}
+			System.out.println(row);
+		}
+	}
+}
@@ -0,0 +1,206 @@
+/*
+ * Program POMEGRANATE for cell lineage tree simulation and sampling
+ * by Victoria Popic (viq@stanford.edu) 2014-2015
+ *
+ * MIT License
+ *
+ * Copyright (c) 2014 Victoria Popic.
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Block index of a position-sorted VAF (or read count) text file, for region queries
+ * without scanning the file (similar to the tabix linear index).
+ * The genome is divided into bins of 2^BIN_SHIFT bases; for each chromosome and non-empty bin,
+ * the index stores the byte offset of the first row of the bin.
+ * A query seeks to the first indexed bin that can contain the region start and reads the rows
+ * Offsets refer to the uncompressed file (the sorted output cannot be combined with -gzip).
+ * Offsets refer to the uncompressed file.
+ *
+ * Index format (<file>.idx, tab-separated):
+ * <pre>
+ * #chrom	bin	offset
+ * </pre>
+ */
+public class VAFIndex {
+	public static final String SUFFIX = ".idx";
+	public static final int BIN_SHIFT = 16;
+	
+	// {chromosome (as in the VAF file, 1-based), bin, offset} in file order
+	private ArrayList<long[]> entries = new ArrayList<long[]>();
+	private int lastChrom = -1;
+	private int lastBin = -1;
+	// chromosome -> bins and offsets (built on the first query)
+	private HashMap<Integer, long[][]> chromBins;
+	
+	/**
+	 * Creates an empty index to be filled with the rows of a sorted file
+	 */
+	public VAFIndex() {
+	}
+	
+	/**
+	 * Loads the given index file
+	 */
+	public VAFIndex(String indexFileName) throws IOException {
+		BufferedReader in = new BufferedReader(new FileReader(indexFileName));
+		try {
+			String line;
+			while((line = in.readLine()) != null) {
+				if(line.length() == 0 || line.charAt(0) == '#') continue;
+				String[] fields = line.split("\t");
+				add(Integer.parseInt(fields[0]), Integer.parseInt(fields[1]) << BIN_SHIFT, Long.parseLong(fields[2]));
+			}
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Adds a row of the file; the rows must be added in (chromosome, position) order
+	 * @param offset byte offset of the row in the file
+	 */
+	public void add(int chrom, int position, long offset) {
+		int bin = position >>> BIN_SHIFT;
+		if(chrom == lastChrom && bin == lastBin) {
+			return;
+		}
+		if(chrom < lastChrom || (chrom == lastChrom && bin < lastBin)) {
+			throw new IllegalArgumentException("Rows are not sorted by position: " + chrom + ":" + position);
+		}
+		entries.add(new long[] {chrom, bin, offset});
+		lastChrom = chrom;
+		lastBin = bin;
+		chromBins = null;
+	}
+	
+	/**
+	 * Returns the offset of the first row that can be in the region starting at the given position
+	 * of the chromosome, or -1 if the chromosome has no rows at or after this position
+	 */
+	public long getOffset(int chrom, int start) {
+		if(chromBins == null) {
+			indexChromosomes();
+		}
+		long[][] bins = chromBins.get(chrom);
+		if(bins == null) {
+			return -1;
+		}
+		int bin = start >>> BIN_SHIFT;
+		// binary search for the first bin >= the start bin
+		int lo = 0;
+		int hi = bins[0].length;
+		while(lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if(bins[0][mid] < bin) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return (lo < bins[0].length) ? bins[1][lo] : -1;
+	}
+	
+	public int getNumBins() {
+		return entries.size();
+	}
+	
+	public void write(Writer out) throws IOException {
+		out.write("#chrom\tbin\toffset\n");
+		for(long[] entry : entries) {
+			out.write(entry[0] + "\t" + entry[1] + "\t" + entry[2] + "\n");
+		}
+		out.close();
+	}
+	
+	private void indexChromosomes() {
+		chromBins = new HashMap<Integer, long[][]>();
+		// the entries of each chromosome are contiguous
+		for(int i = 0; i < entries.size(); ) {
+			int chrom = (int) entries.get(i)[0];
+			int j = i;
+			while(j < entries.size() && entries.get(j)[0] == chrom) {
+				j++;
+			}
+			long[][] bins = new long[2][j - i];
+			for(int k = i; k < j; k++) {
+				bins[0][k - i] = entries.get(k)[1];
+				bins[1][k - i] = entries.get(k)[2];
+			}
+			chromBins.put(chrom, bins);
+			i = j;
+		}
+	}
+	
+	/**
+	 * Returns the rows of a sorted VAF file (using its index) in the region [start, end] of the chromosome
+	 */
+	public static ArrayList<String> query(String fileName, int chrom, int start, int end) throws IOException {
+		ArrayList<String> rows = new ArrayList<String>();
+		long offset = new VAFIndex(fileName + SUFFIX).getOffset(chrom, start);
+		if(offset < 0) {
+			return rows;
+		}
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			file.seek(offset);
+			BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(file.getChannel())));
+			String line;
+			while((line = in.readLine()) != null) {
+				int tab = line.indexOf('\t');
+				int rowChrom = Integer.parseInt(line.substring(0, tab));
+				int position = Integer.parseInt(line.substring(tab + 1, line.indexOf('\t', tab + 1)));
+				if(rowChrom != chrom || position > end) break;
+				if(position >= start) {
+					rows.add(line);
+				}
+			}
+		} finally {
+			file.close();
+		}
+		return rows;
+	}
+	
+	/**
+	 * Prints the rows of a sorted VAF file in the given region
+	 * usage: VAFIndex file chrom:start-end
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 2 || !args[1].matches("\\d+:\\d+-\\d+")) {
+			System.err.println("Usage: VAFIndex <file> <chrom>:<start>-<end>");
+			System.exit(-1);
+		}
+		String[] region = args[1].split("[:-]");
+		for(String row : query(args[0], Integer.parseInt(region[0]), Integer.parseInt(region[1]), Integer.parseInt(region[2]))) {
+			System.out.println(row);
+		}
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * Program POMEGRANATE for cell lineage tree simulation and sampling
+ * by Victoria Popic (viq@stanford.edu) 2014-2015
+ *
+ * MIT License
+ *
+ * Copyright (c) 2014 Victoria Popic.
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+
+/**
+ * VAFs of the SNVs of a tree in a set of samples, stored in a flat row-major matrix
+ * (row = SNV, column = sample, column 0 is the normal sample).
+ * The rows are the SNVs present in at least one sample, in the order of their (per-tree, dense) ids,
+ * unless the matrix was reordered with select.
+ */
+public class VAFMatrix {
+	private Mutation.SNV[] snvs;
+	private double[] vafs;
+	private int numSamples;
+	
+	/**
+	 * Creates a matrix of zero VAFs with the given rows
+	 */
+	public VAFMatrix(Mutation.SNV[] rowSNVs, int numSamples) {
+		snvs = rowSNVs;
+		this.numSamples = numSamples;
+		vafs = new double[snvs.length*numSamples];
+	}
+	
+	public int getNumRows() {
+		return snvs.length;
+	}
+	
+	public int getNumSamples() {
+		return numSamples;
+	}
+	
+	public Mutation.SNV getSNV(int row) {
+		return snvs[row];
+	}
+	
+	public double get(int row, int sample) {
+		return vafs[row*numSamples + sample];
+	}
+	
+	public void set(int row, int sample, double vaf) {
+		vafs[row*numSamples + sample] = vaf;
+	}
+	
+	/**
+	 * Returns a matrix with the same rows and samples and zero VAFs
+	 */
+	public VAFMatrix emptyCopy() {
+		return new VAFMatrix(snvs, numSamples);
+	}
+	
+	/**
+	 * Returns the matrix of the given rows (in the given order) and the first numSamples samples
+	 */
+	public VAFMatrix select(int[] rows, int numSamples) {
+		Mutation.SNV[] rowSNVs = new Mutation.SNV[rows.length];
+		for(int i = 0; i < rows.length; i++) {
+			rowSNVs[i] = snvs[rows[i]];
+		}
+		VAFMatrix selection = new VAFMatrix(rowSNVs, numSamples);
+		for(int i = 0; i < rows.length; i++) {
+			System.arraycopy(vafs, rows[i]*this.numSamples, selection.vafs, i*numSamples, numSamples);
+		}
+		return selection;
+	}
+	
+	/**
+	 * Returns the binary sample profile of each row as a bit set:
+	 * bit (k % 64) of word row*getProfileWords() + k/64 is set if the VAF in sample k is not 0
+	 */
+	public long[] getProfiles() {
+		int words = getProfileWords();
+		long[] profiles = new long[snvs.length*words];
+		for(int row = 0; row < snvs.length; row++) {
+			for(int k = 0; k < numSamples; k++) {
+				if(vafs[row*numSamples + k] != 0) {
+					profiles[row*words + (k >>> 6)] |= 1L << k;
+				}
+			}
+		}
+		return profiles;
+	}
+	
+	public int getProfileWords() {
+		return (numSamples + 63) >>> 6;
+	}
+	
+	/**
+	 * Appends the binary sample profile of the row, e.g. 0110
+	 */
+	public void appendProfile(StringBuilder sb, long[] profiles, int row) {
+		int offset = row*getProfileWords();
+		for(int k = 0; k < numSamples; k++) {
+			sb.append(((profiles[offset + (k >>> 6)] >>> k) & 1) != 0 ? '1' : '0');
+		}
+	}
+}
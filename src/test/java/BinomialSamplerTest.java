@@ -0,0 +1,193 @@
+/*
+ * Program POMEGRANATE for cell lineage tree simulation and sampling
+ * by Victoria Popic (viq@stanford.edu) 2014-2015
+ *
+ * MIT License
+ *
+ * Copyright (c) 2014 Victoria Popic.
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Statistical tests of BinomialSampler against the exact binomial distribution,
+ * on both the inversion (n*min(p,1-p) <= 30) and the BTPE branches.
+ * The draws are seeded, so the tests are deterministic; the bounds are wide enough
+ * (about 5 standard errors, chi-square at the 0.1% level) that a correct sampler
+ * fails only for an unlucky seed, while an incorrect distribution fails.
+ */
+public class BinomialSamplerTest {
+	private static final int NUM_DRAWS = 200000;
+	private static final long SEED = 20240917L;
+	
+	// {n, p}: inversion, BTPE, p > 0.5 (complement), p close to 0, n*p on both sides of the switch at 30
+	private static final double[][] GRID = {
+		{1, 0.5}, {10, 0.3}, {50, 0.1}, {40, 0.8}, {100000, 1e-6}, {1000, 1e-4},
+		{100, 0.3}, {100, 0.31}, {60, 0.5}, {61, 0.5}, {150, 0.8}, {151, 0.8},
+		{200, 0.5}, {1000, 0.9}, {10000, 0.02}, {5000, 0.97}, {100000, 0.4}
+	};
+	
+	@Test
+	public void zeroTrials() {
+		BinomialSampler sampler = new BinomialSampler(new RandomStream(SEED));
+		for(double p : new double[] {0, 0.3, 0.5, 0.9, 1}) {
+			for(int i = 0; i < 100; i++) {
+				assertEquals(0, sampler.sample(0, p));
+			}
+		}
+	}
+	
+	@Test
+	public void degenerateProbabilities() {
+		BinomialSampler sampler = new BinomialSampler(new RandomStream(SEED));
+		for(int i = 0; i < 100; i++) {
+			assertEquals(0, sampler.sample(1000, 0));
+			assertEquals(1000, sampler.sample(1000, 1));
+		}
+	}
+	
+	@Test
+	public void meanAndVariance() {
+		BinomialSampler sampler = new BinomialSampler(new RandomStream(SEED));
+		for(double[] np : GRID) {
+			int n = (int) np[0];
+			double p = np[1];
+			double sum = 0;
+			double sumSq = 0;
+			for(int i = 0; i < NUM_DRAWS; i++) {
+				int x = sampler.sample(n, p);
+				assertTrue("sample out of range for n=" + n + ", p=" + p + ": " + x, x >= 0 && x <= n);
+				sum += x;
+				sumSq += (double) x*x;
+			}
+			double mean = sum/NUM_DRAWS;
+			double variance = sumSq/NUM_DRAWS - mean*mean;
+			double expectedMean = n*p;
+			double expectedVariance = n*p*(1 - p);
+			// standard error of the mean and (approximately, for a near-normal shape) of the variance
+			double meanTolerance = 5*Math.sqrt(expectedVariance/NUM_DRAWS) + 1e-9;
+			double varianceTolerance = 5*expectedVariance*Math.sqrt(2.0/NUM_DRAWS) 
+					+ 5*Math.sqrt(expectedVariance/NUM_DRAWS) + 1e-9;
+			assertEquals("mean for n=" + n + ", p=" + p, expectedMean, mean, meanTolerance);
+			assertEquals("variance for n=" + n + ", p=" + p, expectedVariance, variance, varianceTolerance);
+		}
+	}
+	
+	@Test
+	public void chiSquareAgainstExactPmf() {
+		BinomialSampler sampler = new BinomialSampler(new RandomStream(SEED + 1));
+		for(double[] np : GRID) {
+			int n = (int) np[0];
+			double p = np[1];
+			double[] pmf = pmf(n, p);
+			long[] counts = new long[n + 1];
+			for(int i = 0; i < NUM_DRAWS; i++) {
+				counts[sampler.sample(n, p)]++;
+			}
+			// cells with an expected count of at least 5, the tails are pooled into the neighboring cells
+			double statistic = 0;
+			int numCells = 0;
+			double expected = 0;
+			long observed = 0;
+			double cdf = 0;
+			for(int k = 0; k <= n; k++) {
+				expected += pmf[k]*NUM_DRAWS;
+				observed += counts[k];
+				cdf += pmf[k];
+				if(expected >= 5 && (1 - cdf)*NUM_DRAWS >= 5) {
+					statistic += (observed - expected)*(observed - expected)/expected;
+					numCells++;
+					expected = 0;
+					observed = 0;
+				}
+			}
+			// the upper tail cell
+			if(expected > 0 || observed > 0) {
+				statistic += (observed - expected)*(observed - expected)/Math.max(expected, 1e-12);
+				numCells++;
+			}
+			int df = numCells - 1;
+			if(df < 1) continue; // a single cell (e.g. n*p close to 0 with one dominant value)
+			assertTrue("chi-square for n=" + n + ", p=" + p + ": " + statistic + " with " + df + " degrees of freedom",
+					statistic < chiSquareCritical(df));
+		}
+	}
+	
+	@Test
+	public void reproducibleForFixedSeed() {
+		int[] first = draws(new BinomialSampler(new RandomStream(SEED)));
+		int[] second = draws(new BinomialSampler(new RandomStream(SEED)));
+		assertArrayEquals(first, second);
+		// split streams are reproducible as well
+		RandomStream a = new RandomStream(SEED);
+		RandomStream b = new RandomStream(SEED);
+		a.split();
+		b.split();
+		assertArrayEquals(draws(new BinomialSampler(a.split())), draws(new BinomialSampler(b.split())));
+		// and a different seed gives different draws
+		int[] other = draws(new BinomialSampler(new RandomStream(SEED + 1)));
+		assertFalse(Arrays.equals(first, other));
+	}
+	
+	/**
+	 * Draws from every point of the grid (both branches, cached and changing setups)
+	 */
+	private static int[] draws(BinomialSampler sampler) {
+		int[] x = new int[10*GRID.length];
+		for(int i = 0; i < x.length; i++) {
+			double[] np = GRID[i % GRID.length];
+			x[i] = sampler.sample((int) np[0], np[1]);
+		}
+		return x;
+	}
+	
+	/**
+	 * Exact binomial pmf, computed in log space
+	 */
+	private static double[] pmf(int n, double p) {
+		double[] logFactorial = new double[n + 1];
+		for(int k = 1; k <= n; k++) {
+			logFactorial[k] = logFactorial[k-1] + Math.log(k);
+		}
+		double[] pmf = new double[n + 1];
+		for(int k = 0; k <= n; k++) {
+			pmf[k] = Math.exp(logFactorial[n] - logFactorial[k] - logFactorial[n-k] + k*Math.log(p) + (n - k)*Math.log1p(-p));
+		}
+		return pmf;
+	}
+	
+	/**
+	 * Upper 0.1% point of the chi-square distribution (Wilson-Hilferty approximation)
+	 */
+	private static double chiSquareCritical(int df) {
+		double z = 3.0902;
+		double a = 2.0/(9*df);
+		return df*Math.pow(1 - a + z*Math.sqrt(a), 3);
+	}
+}
@@ -0,0 +1,197 @@
+/*
+ * Program POMEGRANATE for cell lineage tree simulation and sampling
+ * by Victoria Popic (viq@stanford.edu) 2014-2015
+ *
+ * MIT License
+ *
+ * Copyright (c) 2014 Victoria Popic.
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ * BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ * ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ * CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+*/
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+/**
+ * Equivalence tests of the single-pass VAF computation on seeded trees, with and without CNVs:
+ * the object tree (SimulatedTree) and the compact tree (TreeStore) grown from the same seed
+ * must produce the same VAF matrix and CNV-affected SNV counts, and the VAFs of the object tree
+ * must match a direct per-population count of the variant and total allele copies
+ * over the mutation lineage of each sampled population.
+ */
+public class SNVFrequenciesTest {
+	private static final long[] SEEDS = {7L, 20240917L, 123456789L};
+	private static final int NUM_SAMPLES = 6;
+	
+	@Test
+	public void withoutCNVs() {
+		for(long seed : SEEDS) {
+			int numAffected = checkTrees(getParameters(0, false), seed);
+			assertEquals("CNV-affected SNVs without CNVs (seed " + seed + ")", 0, numAffected);
+		}
+	}
+	
+	@Test
+	public void withCNVs() {
+		int numAffected = 0;
+		for(long seed : SEEDS) {
+			numAffected += checkTrees(getParameters(0.2, false), seed);
+		}
+		assertTrue("no SNVs are affected by CNVs", numAffected > 0);
+	}
+	
+	@Test
+	public void localizedWithCNVs() {
+		for(long seed : SEEDS) {
+			checkTrees(getParameters(0.2, true), seed);
+		}
+	}
+	
+	private static Parameters getParameters(double probCNV, boolean localized) {
+		Parameters params = new Parameters();
+		params.PROB_CNV = probCNV;
+		params.LOCALIZED_SAMPLING = localized;
+		params.NUM_ITERATIONS = 30;
+		params.MAX_NUM_NODES = 300;
+		params.NUM_CELLS_PER_SAMPLE = 10000;
+		return params;
+	}
+	
+	/**
+	 * Grows both trees from the seed, samples them and compares their VAFs
+	 * @return the total number of CNV-affected SNVs over the samples
+	 */
+	private static int checkTrees(Parameters params, long seed) {
+		SimulatedTree tree = new SimulatedTree(params, new RandomStream(seed));
+		TreeStore store = new TreeStore(params, new RandomStream(seed));
+		grow(tree, params);
+		grow(store, params);
+		assertEquals("nodes (seed " + seed + ")", tree.getNumNodes(), store.getNumNodes());
+		ArrayList<TumorSample> samples = getSamples(tree, params);
+		ArrayList<TreeStore.Sample> storeSamples = getSamples(store, params);
+		assertEquals("samples (seed " + seed + ")", samples.size(), storeSamples.size());
+		assertTrue("no samples (seed " + seed + ")", samples.size() > 0);
+		
+		VAFMatrix vafs = tree.getSNVFrequencies(samples);
+		VAFMatrix storeVAFs = store.getSNVFrequencies(storeSamples);
+		assertEquals("rows (seed " + seed + ")", vafs.getNumRows(), storeVAFs.getNumRows());
+		assertEquals("columns (seed " + seed + ")", samples.size() + 1, vafs.getNumSamples());
+		assertEquals("columns (seed " + seed + ")", vafs.getNumSamples(), storeVAFs.getNumSamples());
+		for(int i = 0; i < vafs.getNumRows(); i++) {
+			Mutation.SNV snv = vafs.getSNV(i);
+			Mutation.SNV storeSNV = storeVAFs.getSNV(i);
+			String row = snv.getName() + " (seed " + seed + ")";
+			assertEquals(row, snv.getName(), storeSNV.getName());
+			assertEquals(row, snv.chr, storeSNV.chr);
+			assertEquals(row, snv.position, storeSNV.position);
+			assertEquals(row, snv.haplotype, storeSNV.haplotype);
+			for(int k = 0; k < vafs.getNumSamples(); k++) {
+				assertEquals(row + " in sample " + k, vafs.get(i, k), storeVAFs.get(i, k), 0);
+			}
+		}
+		
+		int numAffected = 0;
+		for(int k = 0; k < samples.size(); k++) {
+			assertEquals("CNV-affected SNVs in sample " + (k + 1) + " (seed " + seed + ")", 
+					samples.get(k).getNumCNVAffectedSNVs(), storeSamples.get(k).getNumCNVAffectedSNVs());
+			numAffected += checkLineageCounts(vafs, samples.get(k), k + 1, seed);
+		}
+		return numAffected;
+	}
+	
+	private static void grow(LineageTree<?> tree, Parameters params) {
+		for(int iter = 0; iter < params.NUM_ITERATIONS && tree.getNumLiveNodes() < params.MAX_NUM_NODES + 1; iter++) {
+			tree.grow();
+		}
+	}
+	
+	private static <S extends LineageTree.Sample> ArrayList<S> getSamples(LineageTree<S> tree, Parameters params) {
+		if(params.LOCALIZED_SAMPLING) {
+			return tree.getKLocalizedSamples(NUM_SAMPLES);
+		}
+		ArrayList<S> samples = new ArrayList<S>();
+		for(int i = 0; i < NUM_SAMPLES; i++) {
+			samples.add(tree.getSample());
+		}
+		return samples;
+	}
+	
+	/**
+	 * Checks the VAF column of the sample against the allele copies counted over the mutation lineage
+	 * of each sampled population: a population has two copies of each locus plus one per CNV on its arm,
+	 * and one variant copy of each SNV in its lineage plus one per later CNV on the same arm and haplotype
+	 * @return the number of CNV-affected SNVs in the sample
+	 */
+	private static int checkLineageCounts(VAFMatrix vafs, TumorSample sample, int k, long seed) {
+		int numAffected = 0;
+		for(int i = 0; i < vafs.getNumRows(); i++) {
+			Mutation.SNV snv = vafs.getSNV(i);
+			String row = snv.getName() + " in sample " + k + " (seed " + seed + ")";
+			boolean sampled = false;
+			for(CellPopulation c : sample.cellPopulationCounts.keySet()) {
+				sampled |= c.containsMutation(snv);
+			}
+			if(!sampled) {
+				assertEquals(row, 0, vafs.get(i, k), 0);
+				continue;
+			}
+			long varCopies = 0;
+			long totalCopies = 2L*sample.numNormalCells;
+			boolean affected = false;
+			for(CellPopulation c : sample.cellPopulationCounts.keySet()) {
+				long numCells = sample.cellPopulationCounts.get(c);
+				int numCopies = 2;
+				int numCNVsBelow = 0; // CNVs on the same arm and haplotype acquired after the SNV
+				boolean carrier = false;
+				// walk up the lineage: the CNVs reached before the SNV were acquired after it
+				for(CellPopulation p = c; p.getNumMutations() > 0; p = p.getParent()) {
+					Mutation m = p.getLastMutation();
+					if(m.id == snv.id) {
+						carrier = true;
+					} else if(p.isCNV() && m.chr == snv.chr && ((Mutation.CNV) m).arm == getArm(snv)) {
+						numCopies++;
+						affected = true;
+						if(!carrier && m.haplotype == snv.haplotype) {
+							numCNVsBelow++;
+						}
+					}
+				}
+				totalCopies += numCells*numCopies;
+				if(carrier) {
+					varCopies += numCells*(1 + numCNVsBelow);
+				}
+			}
+			assertEquals(row, (double) varCopies/totalCopies, vafs.get(i, k), 0);
+			if(affected) {
+				numAffected++;
+			}
+		}
+		assertEquals("CNV-affected SNVs in sample " + k + " (seed " + seed + ")", numAffected, sample.getNumCNVAffectedSNVs());
+		return numAffected;
+	}
+	
+	private static int getArm(Mutation.SNV snv) {
+		return (snv.position <= Mutation.CHROMOSOME_LENGTHS[snv.chr]/2) ? 0 : 1;
+	}
+}